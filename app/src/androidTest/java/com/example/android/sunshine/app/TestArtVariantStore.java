@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class TestArtVariantStore extends AndroidTestCase {
+
+    public void testExactSize() {
+        Bitmap variant = ArtVariantStore.get(mContext, R.drawable.art_clear, 64, 48);
+        assertNotNull("Error: The art wasn't decoded", variant);
+        assertTrue("Error: The variant doesn't fit the size asked for",
+                variant.getWidth() <= 64 && variant.getHeight() <= 48);
+        assertTrue("Error: The variant doesn't fill the size asked for",
+                variant.getWidth() == 64 || variant.getHeight() == 48);
+        assertSame("Error: The variant was decoded again",
+                variant, ArtVariantStore.get(mContext, R.drawable.art_clear, 64, 48));
+    }
+
+    public void testConfig() {
+        Bitmap opaque = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888);
+        opaque.setHasAlpha(false);
+        Bitmap fitted = ArtVariantStore.fit(opaque, 50, 50);
+        assertEquals(Bitmap.Config.RGB_565, fitted.getConfig());
+        assertEquals(50, fitted.getWidth());
+        assertEquals(25, fitted.getHeight());
+
+        Bitmap transparent = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888);
+        assertEquals(Bitmap.Config.ARGB_8888, ArtVariantStore.fit(transparent, 50, 50).getConfig());
+    }
+}
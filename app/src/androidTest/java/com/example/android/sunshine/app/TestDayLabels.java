@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.EpochDay;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+public class TestDayLabels extends AndroidTestCase {
+
+    public void testLabels() {
+        assertEquals(mContext.getString(R.string.today),
+                DayLabels.getDayName(mContext, dayMillis(0)));
+        assertEquals(mContext.getString(R.string.tomorrow),
+                DayLabels.getDayName(mContext, dayMillis(1)));
+        assertEquals(new SimpleDateFormat("EEEE").format(dayMillis(3)),
+                DayLabels.getDayName(mContext, dayMillis(3)));
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(dayMillis(10)),
+                DayLabels.getFriendlyDayString(mContext, dayMillis(10), false));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date,
+                mContext.getString(R.string.today),
+                new SimpleDateFormat("MMMM dd").format(dayMillis(0))),
+                DayLabels.getFriendlyDayString(mContext, dayMillis(0), true));
+        assertEquals(DayLabels.getDayName(mContext, dayMillis(4)),
+                DayLabels.getFriendlyDayString(mContext, dayMillis(4), true));
+
+        // Any time of the day has the day's label
+        assertSame("Error: A day's label wasn't remembered",
+                DayLabels.getDayName(mContext, dayMillis(3)),
+                DayLabels.getDayName(mContext, dayMillis(3) + EpochDay.DAY_IN_MILLIS / 2));
+    }
+
+    public void testLocaleChange() {
+        final Locale locale = Locale.getDefault();
+        final Locale other = Locale.FRENCH.getLanguage().equals(locale.getLanguage()) ?
+                Locale.GERMAN : Locale.FRENCH;
+        String label = DayLabels.getDayName(mContext, dayMillis(3));
+        try {
+            Locale.setDefault(other);
+            assertEquals(new SimpleDateFormat("EEEE", other).format(dayMillis(3)),
+                    DayLabels.getDayName(mContext, dayMillis(3)));
+        } finally {
+            Locale.setDefault(locale);
+            DayLabels.onLocaleChanged();
+        }
+        assertEquals(label, DayLabels.getDayName(mContext, dayMillis(3)));
+    }
+
+    private static long dayMillis(int day) {
+        return EpochDay.toMillis(EpochDay.today() + day);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import com.example.android.sunshine.app.data.EpochDay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    // Records the item changes dispatched to it
+    private static class RecordingAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        final List<String> events = new ArrayList<String>();
+
+        RecordingAdapter() {
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    events.add("all");
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    events.add("change " + positionStart + " " + itemCount);
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    events.add("insert " + positionStart + " " + itemCount);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    events.add("remove " + positionStart + " " + itemCount);
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+
+    public void testUnchangedForecastDispatchesNothing() {
+        List<ForecastRow> rows = createRows(0, 14, 0);
+        ForecastDiff diff = ForecastDiff.compute(rows, createRows(0, 14, 0));
+        assertTrue("Error: A reload with the same forecast changed rows", diff.isEmpty());
+        assertSame(rows, diff.from);
+    }
+
+    public void testChanges() {
+        // The next day: today drops off, a day is added at the end and one forecast changed
+        List<ForecastRow> from = createRows(0, 14, 0);
+        List<ForecastRow> to = createRows(1, 15, 5);
+        RecordingAdapter adapter = new RecordingAdapter();
+        ForecastDiff.compute(from, to).dispatchTo(adapter);
+        assertEquals("[remove 0 1, change 4 1, insert 13 1]", adapter.events.toString());
+
+        // A new location has none of the same days
+        adapter.events.clear();
+        ForecastDiff.compute(from, createRows(20, 23, -1)).dispatchTo(adapter);
+        assertEquals("[remove 0 14, insert 0 3]", adapter.events.toString());
+
+        adapter.events.clear();
+        ForecastDiff.compute(createRows(0, 2, -1), from).dispatchTo(adapter);
+        assertEquals("[change 0 1, insert 2 12]", adapter.events.toString());
+    }
+
+    public void testUnsortedRowsHaveNoDiff() {
+        List<ForecastRow> unsorted = new ArrayList<ForecastRow>(createRows(0, 3, -1));
+        unsorted.add(unsorted.remove(0));
+        assertNull(ForecastDiff.compute(createRows(0, 3, -1), unsorted));
+    }
+
+    // The days from first up to last, with one day's forecast different from the others
+    private List<ForecastRow> createRows(int first, int last, int changedDay) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long today = EpochDay.toMillis(EpochDay.today());
+        for (int day = first; day < last; day++) {
+            cursor.addRow(new Object[]{
+                    day + 1, today + day * EpochDay.DAY_IN_MILLIS, "Clear",
+                    day == changedDay ? 90 : 75, 65, "99705", 800, 64.7488, -147.353
+            });
+        }
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+        return rows;
+    }
+}
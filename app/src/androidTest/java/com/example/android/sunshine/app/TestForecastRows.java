@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.EpochDay;
+
+import java.util.List;
+
+public class TestForecastRows extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRows.class.getSimpleName();
+
+    private static final int DAYS = 14;
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mArtPack;
+
+    public void setUp() {
+        // Local graphics, so binding never goes to Glide
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = mPrefs.getString(mArtPackKey, null);
+        mPrefs.edit().putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    public void tearDown() {
+        mPrefs.edit().putString(mArtPackKey, mArtPack).commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    public void testFromCursor() {
+        MatrixCursor cursor = createForecastCursor();
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        assertEquals(DAYS, rows.size());
+        assertEquals("Error: The cursor wasn't left before its first row", -1,
+                cursor.getPosition());
+
+        ForecastRow row = rows.get(3);
+        assertEquals(dayMillis(3), row.date);
+        assertEquals(800, row.weatherId);
+        assertNull("Error: Local graphics have no art url", row.artUrl);
+        assertEquals(Utility.getIconResourceForWeatherCondition(800), row.iconResourceId);
+        assertEquals("iconView" + dayMillis(3), row.transitionName);
+        assertEquals(Utility.getFriendlyDayString(mContext, dayMillis(3), false), row.dateText);
+        assertEquals(Utility.formatTemperature(mContext, 78), row.high);
+        assertEquals(mContext.getString(R.string.a11y_high_temp, row.high),
+                row.highContentDescription);
+
+        assertTrue(ForecastRow.fromCursor(mContext, null).isEmpty());
+        cursor.close();
+    }
+
+    /*
+        Scrolling the list binds a row each time one comes into view.  This compares what a
+        bind cost when it formatted the row from the cursor with binding the precomputed row.
+     */
+    public void testBindBenchmark() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        MatrixCursor cursor = createForecastCursor();
+        adapter.swapCursor(cursor);
+        ForecastAdapter.ForecastAdapterViewHolder holder =
+                adapter.new ForecastAdapterViewHolder(createItemView());
+        final int binds = 5000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < binds / DAYS; i++) {
+            ForecastRow.fromCursor(mContext, cursor);
+        }
+        long formatNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < binds; i++) {
+            adapter.onBindViewHolder(holder, i % DAYS);
+        }
+        long bindNanos = System.nanoTime() - start;
+
+        adapter.onBindViewHolder(holder, 5);
+        assertEquals(Utility.formatTemperature(mContext, 80),
+                holder.mHighTempView.getText().toString());
+        assertEquals(Utility.getFriendlyDayString(mContext, dayMillis(5), false),
+                holder.mDateView.getText().toString());
+
+        Log.d(LOG_TAG, "Per row: formatting " + formatNanos / (binds / DAYS * DAYS) / 1000 +
+                " us, binding " + bindNanos / binds / 1000 + " us");
+        cursor.close();
+    }
+
+    private LinearLayout createItemView() {
+        LinearLayout view = new LinearLayout(mContext);
+        ImageView icon = new ImageView(mContext);
+        icon.setId(R.id.list_item_icon);
+        view.addView(icon);
+        int[] ids = {
+                R.id.list_item_date_textview,
+                R.id.list_item_forecast_textview,
+                R.id.list_item_high_textview,
+                R.id.list_item_low_textview
+        };
+        for (int id : ids) {
+            TextView text = new TextView(mContext);
+            text.setId(id);
+            view.addView(text);
+        }
+        return view;
+    }
+
+    private static MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{
+                    i + 1, dayMillis(i), "Clear", 75 + i, 65, "99705", 800, 64.7488, -147.353
+            });
+        }
+        return cursor;
+    }
+
+    private static long dayMillis(int day) {
+        return EpochDay.toMillis(EpochDay.today()) + day * EpochDay.DAY_IN_MILLIS;
+    }
+}
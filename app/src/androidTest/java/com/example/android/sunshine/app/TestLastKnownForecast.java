@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.ForecastFile;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.List;
+
+public class TestLastKnownForecast extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLastKnownForecast.class.getSimpleName();
+
+    private static final String LOCATION = "99705";
+    private static final int DAYS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        // Yesterday is in the store but isn't shown
+        final int today = EpochDay.today();
+        ContentValues[] days = new ContentValues[DAYS + 1];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = new ContentValues();
+            days[i].put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, EpochDay.toMillis(today - 1 + i));
+            days[i].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            days[i].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            days[i].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+            days[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            days[i].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, i % 2 == 0 ? 800 : 501);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.load(mContext.getContentResolver(), LOCATION);
+        assertNotNull("Error: The location has no snapshot", snapshot);
+        assertTrue("Error: The forecast file wasn't written",
+                ForecastFile.write(mContext, snapshot));
+    }
+
+    /*
+        The rows shown on the first frame are the ones the loader brings, so replacing them
+        binds nothing again.
+     */
+    public void testSameRowsAsTheLoader() {
+        List<ForecastRow> lastKnown =
+                ForecastRow.fromFile(mContext, ForecastFile.read(mContext, LOCATION));
+        Cursor cursor = queryForecast();
+        List<ForecastRow> loaded = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+
+        assertEquals(DAYS, lastKnown.size());
+        ForecastDiff diff = ForecastDiff.compute(lastKnown, loaded);
+        assertNotNull(diff);
+        assertTrue("Error: The last known forecast differs from the loader's",
+                diff.isEmpty());
+    }
+
+    /*
+        What stands between the view being created and the first frame with the forecast in
+        it: the loader's query and formatting, or reading the forecast file and formatting.
+     */
+    public void testFirstFrameBenchmark() {
+        final int runs = 50;
+        int rows = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            Cursor cursor = queryForecast();
+            rows += ForecastRow.fromCursor(mContext, cursor).size();
+            cursor.close();
+        }
+        long loaderNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            rows -= ForecastRow.fromFile(mContext, ForecastFile.read(mContext, LOCATION)).size();
+        }
+        long fileNanos = System.nanoTime() - start;
+
+        assertEquals(0, rows);
+        Log.d(LOG_TAG, "Rows for the first frame: loader query " + loaderNanos / runs / 1000 +
+                " us, last known forecast " + fileNanos / runs / 1000 + " us");
+    }
+
+    private Cursor queryForecast() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION,
+                        System.currentTimeMillis()),
+                ForecastFragment.FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        return cursor;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+public class TestPresentationChanges extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    public void setUp() {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+        setUnits(R.string.pref_units_metric);
+    }
+
+    public void tearDown() {
+        mPrefs.edit().putString(mUnitsKey, mUnits).commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    public void testChangesPresentation() {
+        SettingsSnapshot metric = SettingsSnapshot.get(mContext);
+        assertFalse(PresentationChanges.changesPresentation(metric, metric));
+        assertTrue(PresentationChanges.changesPresentation(metric,
+                setUnits(R.string.pref_units_imperial)));
+    }
+
+    /*
+        Toggling the units formats the rows the list already holds again, and the provider
+        sees no query.
+     */
+    public void testUnitsToggleDoesNotQuery() {
+        MatrixCursor cursor = createForecastCursor();
+        final ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        adapter.swapCursor(cursor);
+        PresentationChanges.Listener listener = new PresentationChanges.Listener() {
+            @Override
+            public void onPresentationChanged(SettingsSnapshot settings) {
+                adapter.refreshPresentation();
+            }
+        };
+        PresentationChanges.addListener(listener);
+
+        long queries = getQueryCount();
+        try {
+            PresentationChanges.notifyListeners(setUnits(R.string.pref_units_imperial));
+        } finally {
+            PresentationChanges.removeListener(listener);
+        }
+        assertEquals("Error: Changing the units queried the provider", queries, getQueryCount());
+
+        ForecastAdapter.ForecastAdapterViewHolder holder =
+                adapter.new ForecastAdapterViewHolder(createItemView());
+        adapter.onBindViewHolder(holder, 2);
+        assertEquals(Utility.formatTemperature(mContext, 22, false),
+                holder.mHighTempView.getText().toString());
+        cursor.close();
+    }
+
+    /*
+        The loader keeps its cursor across a rotation and doesn't reload for a units change, so
+        a fragment created after the change is handed rows formatted before it.
+     */
+    public void testRetainedCursorAfterUnitsToggle() {
+        ForecastDisplayLoader loader = new ForecastDisplayLoader(mContext,
+                WeatherContract.WeatherEntry.CONTENT_URI, ForecastFragment.FORECAST_COLUMNS,
+                null, null, null);
+        Cursor cursor = loader.display(createForecastCursor());
+        assertNotNull(ForecastDisplayLoader.getRows(mContext, cursor));
+
+        setUnits(R.string.pref_units_imperial);
+        assertNull("Error: Rows formatted in the old units were still handed out",
+                ForecastDisplayLoader.getRows(mContext, cursor));
+
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        adapter.swapCursor(cursor);
+        ForecastAdapter.ForecastAdapterViewHolder holder =
+                adapter.new ForecastAdapterViewHolder(createItemView());
+        adapter.onBindViewHolder(holder, 2);
+        assertEquals(Utility.formatTemperature(mContext, 22, false),
+                holder.mHighTempView.getText().toString());
+        cursor.close();
+    }
+
+    private static MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long today = EpochDay.toMillis(EpochDay.today());
+        for (int day = 0; day < 3; day++) {
+            cursor.addRow(new Object[]{
+                    day + 1, today + day * EpochDay.DAY_IN_MILLIS, "Clear", 20 + day, 10,
+                    "99705", 800, 64.7488, -147.353
+            });
+        }
+        return cursor;
+    }
+
+    private SettingsSnapshot setUnits(int units) {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(units)).commit();
+        return SettingsSnapshot.refresh(mContext);
+    }
+
+    private long getQueryCount() {
+        Bundle metrics = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                MetricsEntry.METHOD_GET_METRICS, null, null);
+        return metrics.getLong(MetricsEntry.EXTRA_QUERY_COUNT);
+    }
+
+    private LinearLayout createItemView() {
+        LinearLayout view = new LinearLayout(mContext);
+        int[] ids = {
+                R.id.list_item_icon,
+                R.id.list_item_date_textview,
+                R.id.list_item_forecast_textview,
+                R.id.list_item_high_textview,
+                R.id.list_item_low_textview
+        };
+        for (int id : ids) {
+            View child = id == R.id.list_item_icon ?
+                    new ImageView(mContext) : new TextView(mContext);
+            child.setId(id);
+            view.addView(child);
+        }
+        return view;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    public void setUp() {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    public void tearDown() {
+        mPrefs.edit().putString(mUnitsKey, mUnits).commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    public void testSnapshot() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        SettingsSnapshot snapshot = SettingsSnapshot.refresh(mContext);
+        assertFalse(snapshot.metric);
+        assertFalse(Utility.isMetric(mContext));
+        assertSame("Error: The snapshot was read again without a change", snapshot,
+                SettingsSnapshot.get(mContext));
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        assertTrue(SettingsSnapshot.refresh(mContext).metric);
+        assertTrue(Utility.isMetric(mContext));
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_location_key),
+                mContext.getString(R.string.pref_location_default)),
+                Utility.getPreferredLocation(mContext));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+public class TestWeatherConditions extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    public void testLookups() {
+        for (int weatherId = -1; weatherId <= 1000; weatherId++) {
+            assertEquals("Error: Wrong icon for " + weatherId,
+                    chainIcon(weatherId), Utility.getIconResourceForWeatherCondition(weatherId));
+        }
+        // 761 was tested as fog before it was tested with 781
+        assertEquals(WeatherConditions.FOG, WeatherConditions.getKind(761));
+        assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(781));
+        assertEquals(R.drawable.art_storm, Utility.getArtResourceForWeatherCondition(781));
+        assertTrue(WeatherConditions.getImageUrl(781).contains("Raised_dust"));
+        assertNull(WeatherConditions.getImageUrl(900));
+        assertEquals(-1, Utility.getArtResourceForWeatherCondition(Integer.MAX_VALUE));
+
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1200),
+                Utility.getStringForWeatherCondition(mContext, 1200));
+    }
+
+    public void testLookupBenchmark() {
+        final int iterations = 100;
+        int sum = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (int weatherId = 200; weatherId < 1000; weatherId++) {
+                sum += chainIcon(weatherId);
+            }
+        }
+        long chain = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (int weatherId = 200; weatherId < 1000; weatherId++) {
+                sum -= Utility.getIconResourceForWeatherCondition(weatherId);
+            }
+        }
+        long table = System.nanoTime() - start;
+
+        assertEquals(0, sum);
+        Log.d(LOG_TAG, "Icon lookups, if/else chain: " + chain / 1000 + "us, table: "
+                + table / 1000 + "us");
+    }
+
+    // The lookup as it was before the table
+    private static int chainIcon(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+}
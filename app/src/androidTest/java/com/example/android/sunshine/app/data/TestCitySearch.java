@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CitySearchEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestCitySearch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCitySearch.class.getSimpleName();
+
+    private static final String GAZETTEER =
+            "# name\tsetting\tweight\n" +
+            "Mountain View\t94043\t80000\n" +
+            "Mount Vernon\tMount Vernon,US\t68000\n" +
+            "Fairmount\tFairmount,US\t3000\n" +
+            "Rome\tRome,IT\t2800000\n";
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, false);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testBuildMatchQuery() {
+        assertEquals("mount* vi*", CitySearch.buildMatchQuery("  Mount, Vi"));
+        assertEquals("Error: FTS operators must not get through",
+                "a* or* b*", CitySearch.buildMatchQuery("\"a\" OR b*"));
+        assertNull(CitySearch.buildMatchQuery(" -*- "));
+    }
+
+    public void testSearchRanksPrefixMatches() throws IOException {
+        loadGazetteer(GAZETTEER);
+
+        Cursor cursor = CitySearch.search(mDb, null, "mount", CitySearchEntry.DEFAULT_LIMIT);
+        assertEquals("Error: Fairmount should not match a word prefix", 2, cursor.getCount());
+        cursor.moveToFirst();
+        // Same prefix match, so the heavier city comes first
+        assertEquals("Mountain View", cursor.getString(
+                cursor.getColumnIndex(CitySearchEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+
+        cursor = CitySearch.search(mDb, null, "940", CitySearchEntry.DEFAULT_LIMIT);
+        assertEquals("Error: The location setting should be searchable", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = CitySearch.search(mDb, null, "", CitySearchEntry.DEFAULT_LIMIT);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testStoredLocationsFollowTheLocationTable() throws IOException {
+        loadGazetteer(GAZETTEER);
+        long locationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+
+        Cursor cursor = CitySearch.search(mDb, null, "nor", CitySearchEntry.DEFAULT_LIMIT);
+        assertTrue("Error: A stored location was not indexed", cursor.moveToFirst());
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(CitySearchEntry.COLUMN_STORED)));
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(CitySearchEntry.COLUMN_LOCATION_SETTING)));
+        cursor.close();
+
+        ContentValues rename = new ContentValues();
+        rename.put(LocationEntry.COLUMN_CITY_NAME, "Santa Claus Village");
+        mDb.update(LocationEntry.TABLE_NAME, rename, null, null);
+        cursor = CitySearch.search(mDb, null, "nor", CitySearchEntry.DEFAULT_LIMIT);
+        assertEquals("Error: A renamed location kept its old name", 0, cursor.getCount());
+        cursor.close();
+
+        mDb.delete(LocationEntry.TABLE_NAME, null, null);
+        cursor = CitySearch.search(mDb, null, "santa", CitySearchEntry.DEFAULT_LIMIT);
+        assertEquals("Error: A deleted location is still indexed", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Type-ahead runs a search per keystroke, so over a gazetteer of 100k cities a prefix
+        search has to stay within a few milliseconds.
+     */
+    public void testSearchBenchmark() throws IOException {
+        final int cities = 100000;
+        final String[] syllables = {"ka", "lo", "mi", "ne", "ru", "sa", "to", "vi", "ber", "mont",
+                "port", "san", "ville", "burg", "ford", "ton"};
+        Random random = new Random(42);
+        StringBuilder gazetteer = new StringBuilder(cities * 24);
+        for (int i = 0; i < cities; i++) {
+            StringBuilder name = new StringBuilder();
+            int parts = 2 + random.nextInt(3);
+            for (int j = 0; j < parts; j++) {
+                name.append(syllables[random.nextInt(syllables.length)]);
+            }
+            name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+            gazetteer.append(name).append('\t').append(i).append('\t')
+                    .append(random.nextInt(1000000)).append('\n');
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        loadGazetteer(gazetteer.toString());
+        Log.d(LOG_TAG, "Indexed " + cities + " cities in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+
+        final int searches = 200;
+        long[] times = new long[searches];
+        for (int i = 0; i < searches; i++) {
+            String prefix = syllables[random.nextInt(syllables.length)] +
+                    (i % 2 == 0 ? "" : syllables[random.nextInt(syllables.length)].substring(0, 1));
+            long searchStart = System.nanoTime();
+            Cursor cursor = CitySearch.search(mDb, null, prefix, CitySearchEntry.DEFAULT_LIMIT);
+            // Fills the window, which is when the query actually runs
+            cursor.getCount();
+            times[i] = System.nanoTime() - searchStart;
+            cursor.close();
+        }
+        Arrays.sort(times);
+        long medianMicros = times[searches / 2] / 1000;
+        Log.d(LOG_TAG, "Prefix search over " + cities + " cities: median " + medianMicros +
+                " us, 90th percentile " + times[searches * 9 / 10] / 1000 + " us");
+        // Loose, so that slow emulators pass; a regression to a table scan won't
+        assertTrue("Error: Prefix search is too slow, median " + medianMicros + " us",
+                medianMicros < 50000);
+    }
+
+    private void loadGazetteer(String contents) throws IOException {
+        mDb.beginTransaction();
+        try {
+            CitySearch.loadGazetteer(mDb, new ByteArrayInputStream(contents.getBytes("UTF-8")));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Exercises the compact weather layout directly through WeatherDbHelper, since the provider
+    picks its layout from a resource.
+ */
+public class TestCompactStorage extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCompactStorage.class.getSimpleName();
+
+    private static final double DELTA = 0.0001;
+
+    void deleteTheDatabases() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(WeatherDbHelper.COMPACT_DATABASE_NAME);
+    }
+
+    public void setUp() {
+        deleteTheDatabases();
+    }
+
+    public void tearDown() {
+        deleteTheDatabases();
+    }
+
+    /*
+        A row written through the storage encoder must read back with the contract's columns
+        and units, both from the view and through the provider's joined query.
+     */
+    public void testRoundTrip() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, true);
+        WeatherStorage storage = dbHelper.getStorage();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: Failure to insert North Pole Location Values", locationRowId != -1);
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        ContentValues encoded = new ContentValues(weatherValues);
+        storage.encode(db, encoded);
+        assertFalse("Error: The short description should not be stored in the weather row",
+                encoded.containsKey(WeatherEntry.COLUMN_SHORT_DESC));
+        assertTrue("Error: Failure to insert compact weather values",
+                db.insert(WeatherEntry.TABLE_NAME, null, encoded) != -1);
+
+        Cursor cursor = db.query(storage.getReadTable(), null, null, null, null, null, null);
+        assertTrue("Error: No records returned from the weather view", cursor.moveToFirst());
+        validateDecodedRecord(cursor, weatherValues);
+        cursor.close();
+
+        long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        cursor = WeatherProvider.buildWeatherByLocationSettingQueryBuilder(storage).query(db,
+                new String[]{
+                        WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                        WeatherEntry.COLUMN_DATE,
+                        WeatherEntry.COLUMN_SHORT_DESC,
+                        WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherEntry.COLUMN_HUMIDITY,
+                        WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_WIND_SPEED,
+                        WeatherEntry.COLUMN_DEGREES,
+                        WeatherEntry.COLUMN_WEATHER_ID,
+                        LocationEntry.COLUMN_LOCATION_SETTING
+                },
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING +
+                        " = ? AND " + WeatherEntry.COLUMN_DATE + " = ? ",
+                new String[]{TestUtilities.TEST_LOCATION, storage.getDateArg(date)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue("Error: No records returned from the joined query", cursor.moveToFirst());
+        validateDecodedRecord(cursor, weatherValues);
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        cursor.close();
+
+        // Selections written against the contract still see dates in milliseconds
+        int deleted = db.delete(WeatherEntry.TABLE_NAME,
+                storage.getWriteSelection(WeatherEntry.COLUMN_DATE + " <= ?"),
+                new String[]{Long.toString(date)});
+        assertEquals("Error: Deleting by date in milliseconds did not match the row", 1, deleted);
+
+        db.close();
+    }
+
+    /*
+        Fills both layouts with the same year of forecasts for a handful of locations and logs
+        their sizes.
+     */
+    public void testCompactLayoutIsSmaller() {
+        long legacyPages = fillDatabase(new WeatherDbHelper(mContext, false));
+        long compactPages = fillDatabase(new WeatherDbHelper(mContext, true));
+
+        Log.d(LOG_TAG, "weather pages: legacy " + legacyPages + ", compact " + compactPages);
+        assertTrue("Error: The compact layout used more pages than the legacy one",
+                compactPages < legacyPages);
+    }
+
+    private static long fillDatabase(WeatherDbHelper dbHelper) {
+        final int locations = 10;
+        final int days = 365;
+        final String[] descriptions = {"Clear", "Clouds", "Rain", "Snow"};
+        final int[] weatherIds = {800, 803, 500, 600};
+
+        WeatherStorage storage = dbHelper.getStorage();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        db.beginTransaction();
+        try {
+            for (int l = 0; l < locations; l++) {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + l);
+                locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + l);
+                locationValues.put(LocationEntry.COLUMN_COORD_LAT, 40.0 + l);
+                locationValues.put(LocationEntry.COLUMN_COORD_LONG, -120.0 + l);
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+
+                for (int d = 0; d < days; d++) {
+                    int kind = (l + d) % weatherIds.length;
+                    ContentValues values = new ContentValues();
+                    values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    values.put(WeatherEntry.COLUMN_DATE, startDate + d * EpochDay.DAY_IN_MILLIS);
+                    values.put(WeatherEntry.COLUMN_SHORT_DESC, descriptions[kind]);
+                    values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[kind]);
+                    values.put(WeatherEntry.COLUMN_MIN_TEMP, 5.25 + d % 10);
+                    values.put(WeatherEntry.COLUMN_MAX_TEMP, 15.75 + d % 10);
+                    values.put(WeatherEntry.COLUMN_HUMIDITY, 60 + d % 30);
+                    values.put(WeatherEntry.COLUMN_PRESSURE, 1013.25 + d % 7);
+                    values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5 + d % 5);
+                    values.put(WeatherEntry.COLUMN_DEGREES, 180.0 + d % 90);
+                    storage.encode(db, values);
+                    db.insert(WeatherEntry.TABLE_NAME, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        db.close();
+        return pages;
+    }
+
+    private static void validateDecodedRecord(Cursor cursor, ContentValues expected) {
+        assertEquals("Error: The date did not decode to local midnight",
+                WeatherContract.normalizeDate(expected.getAsLong(WeatherEntry.COLUMN_DATE)),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+
+        String[] doubleColumns = {
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES
+        };
+        for (String column : doubleColumns) {
+            assertEquals("Error: Column '" + column + "' did not survive the round trip",
+                    expected.getAsDouble(column), cursor.getDouble(cursor.getColumnIndex(column)),
+                    DELTA);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+public class TestDatabaseMaintenance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDatabaseMaintenance.class.getSimpleName();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, false);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testNewDatabasesUseIncrementalVacuum() {
+        assertEquals("Error: The database wasn't created with incremental vacuum",
+                DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL,
+                DatabaseMaintenance.getPragma(mDb, "auto_vacuum"));
+    }
+
+    public void testFreePagesAreReclaimed() {
+        long locationRowId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        fillAndEmptyWeather(locationRowId);
+        assertTrue("Error: Deleting the rows left no free pages",
+                DatabaseMaintenance.getPragma(mDb, "freelist_count") > 0);
+
+        Bundle result = DatabaseMaintenance.run(mDb, databaseFile());
+        assertEquals("Error: Free pages are left after maintenance",
+                0, result.getLong(MaintenanceEntry.EXTRA_FREE_PAGES_AFTER));
+        assertTrue(result.getLong(MaintenanceEntry.EXTRA_PAGE_COUNT_AFTER) <
+                result.getLong(MaintenanceEntry.EXTRA_PAGE_COUNT_BEFORE));
+        assertTrue("Error: The file didn't shrink",
+                result.getLong(MaintenanceEntry.EXTRA_FILE_SIZE_AFTER) <
+                        result.getLong(MaintenanceEntry.EXTRA_FILE_SIZE_BEFORE));
+        assertTrue("Error: The check failed: " +
+                        result.getString(MaintenanceEntry.EXTRA_CHECK_RESULT),
+                result.getBoolean(MaintenanceEntry.EXTRA_CHECK_PASSED));
+    }
+
+    public void testOlderDatabasesAreConverted() {
+        // Build a database the way it was before incremental vacuum, with none at all
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = SQLiteDatabase.openOrCreateDatabase(databaseFile(), null);
+        mDb.execSQL("PRAGMA auto_vacuum = NONE");
+        mDb.execSQL("CREATE TABLE filler (value BLOB)");
+        assertEquals(DatabaseMaintenance.AUTO_VACUUM_NONE,
+                DatabaseMaintenance.getPragma(mDb, "auto_vacuum"));
+
+        DatabaseMaintenance.run(mDb, databaseFile());
+        assertEquals("Error: The database wasn't converted to incremental vacuum",
+                DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL,
+                DatabaseMaintenance.getPragma(mDb, "auto_vacuum"));
+    }
+
+    private void fillAndEmptyWeather(long locationRowId) {
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+                values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i);
+                mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private File databaseFile() {
+        return mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+public class TestEpochDay extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestEpochDay.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 1000L * 60 * 60;
+    private static final int BENCHMARK_ITERATIONS = 20000;
+
+    // The Time based implementation that EpochDay replaced, kept here as the reference
+    // for both correctness and the benchmark.
+    private static long legacyNormalizeDate(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    /*
+        Walks a year either side of now in 7 hour steps, so every hour of the day and both
+        DST transitions get hit, and checks that we normalize exactly like Time did.
+     */
+    public void testMatchesTimeNormalization() {
+        long now = System.currentTimeMillis();
+        for (long millis = now - 365 * EpochDay.DAY_IN_MILLIS;
+             millis < now + 365 * EpochDay.DAY_IN_MILLIS; millis += 7 * HOUR_IN_MILLIS) {
+            assertEquals("Error: EpochDay normalized " + millis + " differently from Time",
+                    legacyNormalizeDate(millis), EpochDay.normalize(millis));
+        }
+    }
+
+    public void testRoundTrip() {
+        int today = EpochDay.today();
+        for (int day = today - 400; day < today + 400; day++) {
+            long millis = EpochDay.toMillis(day);
+            assertEquals("Error: local midnight did not map back to its own day",
+                    day, EpochDay.fromMillis(millis));
+            assertEquals("Error: the last millisecond of the day mapped to the wrong day",
+                    day, EpochDay.fromMillis(EpochDay.toMillis(day + 1) - 1));
+        }
+    }
+
+    public void testTodayMatchesJulianDay() {
+        Time time = new Time();
+        time.setToNow();
+        int julianToday = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        assertEquals(julianToday - Time.EPOCH_JULIAN_DAY, EpochDay.today());
+    }
+
+    /*
+        Per-call cost and allocation of normalizeDate, which runs once per inserted row and
+        once per buildWeatherLocationWithStartDate call.  Results go to logcat.
+     */
+    @SuppressWarnings("deprecation")
+    public void testNormalizeDateBenchmark() {
+        long start = System.currentTimeMillis();
+        long sink = 0;
+
+        // warm up both paths so we don't time class loading or the first zone lookup
+        for (int i = 0; i < 1000; i++) {
+            sink += legacyNormalizeDate(start + i * HOUR_IN_MILLIS);
+            sink += EpochDay.normalize(start + i * HOUR_IN_MILLIS);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            sink += legacyNormalizeDate(start + i * HOUR_IN_MILLIS);
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+        int legacyAllocs = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        long epochDayStart = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            sink += EpochDay.normalize(start + i * HOUR_IN_MILLIS);
+        }
+        long epochDayNanos = System.nanoTime() - epochDayStart;
+        int epochDayAllocs = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.d(LOG_TAG, "normalizeDate before: " + (legacyNanos / BENCHMARK_ITERATIONS) +
+                " ns/call, " + ((float) legacyAllocs / BENCHMARK_ITERATIONS) + " allocs/call");
+        Log.d(LOG_TAG, "normalizeDate after: " + (epochDayNanos / BENCHMARK_ITERATIONS) +
+                " ns/call, " + ((float) epochDayAllocs / BENCHMARK_ITERATIONS) + " allocs/call");
+
+        assertTrue("Error: EpochDay allocated more than the Time based version",
+                epochDayAllocs <= legacyAllocs);
+        assertTrue(sink != 0);
+    }
+}
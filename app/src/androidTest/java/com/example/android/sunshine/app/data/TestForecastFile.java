@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+public class TestForecastFile extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastFile.class.getSimpleName();
+
+    private long mLocationRowId;
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastFile.getFile(mContext, TestUtilities.TEST_LOCATION).delete();
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+
+        // Yesterday is in the store but shouldn't make it into the file
+        mToday = EpochDay.today();
+        ContentValues[] days = new ContentValues[8];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, EpochDay.toMillis(mToday - 1 + i));
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastFile.getFile(mContext, TestUtilities.TEST_LOCATION).delete();
+        super.tearDown();
+    }
+
+    public void testWriteAndRead() {
+        assertNull("Error: Read a file that was never written",
+                ForecastFile.read(mContext, TestUtilities.TEST_LOCATION));
+        assertTrue(ForecastFile.write(mContext, loadSnapshot()));
+
+        ForecastFile file = ForecastFile.read(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: Couldn't read the file back", file);
+        assertEquals(7, file.getCount());
+        assertEquals(EpochDay.toMillis(mToday), file.getDate(0));
+        assertEquals(321, file.getWeatherId(0));
+        assertEquals("Asteroids", file.getShortDesc(0));
+        assertEquals(76f, file.getHigh(0));
+        assertEquals(64f, file.getLow(0));
+        assertEquals(2, file.indexOfFirstDayFrom(EpochDay.toMillis(mToday + 2)));
+
+        Bundle summary = ForecastFile.getTodaySummary(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(76.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals("Asteroids", summary.getString(WeatherEntry.COLUMN_SHORT_DESC));
+    }
+
+    public void testDamagedFilesAreRejected() throws IOException {
+        assertTrue(ForecastFile.write(mContext, loadSnapshot()));
+        File file = ForecastFile.getFile(mContext, TestUtilities.TEST_LOCATION);
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(ForecastFile.HEADER_SIZE + 12);
+            out.writeFloat(99);
+        } finally {
+            out.close();
+        }
+        assertNull("Error: A file with a bad checksum was accepted",
+                ForecastFile.read(mContext, TestUtilities.TEST_LOCATION));
+
+        assertTrue(ForecastFile.write(mContext, loadSnapshot()));
+        out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(out.length() - ForecastFile.RECORD_SIZE / 2);
+        } finally {
+            out.close();
+        }
+        assertNull("Error: A truncated file was accepted",
+                ForecastFile.read(mContext, TestUtilities.TEST_LOCATION));
+
+        // Readers go back to the provider
+        Bundle summary = ForecastFile.getTodaySummary(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: No summary without the file", summary);
+        assertEquals(76.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+    }
+
+    public void testLongDescriptionsAreNotCut() {
+        // "Light rain": two bytes a letter in UTF-8, and it fits
+        final String lightRain = "\u041d\u0435\u0431\u043e\u043b\u044c\u0448\u043e\u0439 " +
+                "\u0434\u043e\u0436\u0434\u044c";
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, lightRain);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values, null, null);
+        assertTrue(ForecastFile.write(mContext, loadSnapshot()));
+        assertEquals(lightRain,
+                ForecastFile.read(mContext, TestUtilities.TEST_LOCATION).getShortDesc(0));
+
+        // Too long for the file, which leaves it to the provider rather than show part of it
+        final String longDesc = lightRain + ", " + lightRain + ", " + lightRain;
+        assertTrue(longDesc.getBytes(Charset.forName("UTF-8")).length >
+                ForecastFile.MAX_DESC_BYTES);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, longDesc);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values, null, null);
+        assertTrue(ForecastFile.write(mContext, loadSnapshot()));
+
+        ForecastFile file = ForecastFile.read(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: A file with a long description wasn't written whole", file);
+        assertNull(file.getShortDesc(0));
+        assertEquals(76f, file.getHigh(0));
+        Bundle summary = ForecastFile.getTodaySummary(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(longDesc, summary.getString(WeatherEntry.COLUMN_SHORT_DESC));
+    }
+
+    public void testReadBenchmark() {
+        assertTrue(ForecastFile.write(mContext, loadSnapshot()));
+        final int reads = 500;
+        double sum = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            Bundle summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherEntry.METHOD_GET_TODAY_SUMMARY, TestUtilities.TEST_LOCATION, null);
+            sum += summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        }
+        long callNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            ForecastFile file = ForecastFile.read(mContext, TestUtilities.TEST_LOCATION);
+            sum += file.getHigh(0);
+        }
+        long fileNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "Today's summary: provider call " + callNanos / reads / 1000 +
+                " us, mapped file " + fileNanos / reads / 1000 + " us (" + sum + ")");
+    }
+
+    private ForecastSnapshot loadSnapshot() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.load(mContext.getContentResolver(), TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: The location has no snapshot", snapshot);
+        return snapshot;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+    }
+
+    public void testSnapshotIsPublishedOnWrite() {
+        assertNull("Error: A location without forecasts should have no snapshot",
+                ForecastSnapshot.load(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+
+        int today = EpochDay.today();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createWeek(today, 0));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.get(TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: No snapshot was published after the bulk insert", snapshot);
+        assertEquals(7, snapshot.getCount());
+        assertEquals(0, snapshot.indexOfFirstDayFrom(EpochDay.toMillis(today)));
+        assertEquals(3, snapshot.indexOfFirstDayFrom(EpochDay.toMillis(today + 3)));
+        assertEquals(7, snapshot.indexOfFirstDayFrom(EpochDay.toMillis(today + 30)));
+        assertEquals(76f, snapshot.getHigh(1));
+        assertEquals(64f, snapshot.getLow(1));
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues, null, null);
+
+        assertEquals("Error: Readers still hold the old snapshot", 76f, snapshot.getHigh(1));
+        assertEquals("Error: No new snapshot was published after the update",
+                80f, ForecastSnapshot.get(TestUtilities.TEST_LOCATION).getHigh(1));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertNull("Error: The snapshot outlived its forecasts",
+                ForecastSnapshot.get(TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        Compares reading the week from the published snapshot with querying it, while another
+        thread keeps rewriting the forecast the way a sync does.
+     */
+    public void testSnapshotReadBenchmark() throws InterruptedException {
+        final int today = EpochDay.today();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createWeek(today, 0));
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int round = 0;
+                while (writing.get()) {
+                    mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                            createWeek(today, ++round % 5));
+                }
+            }
+        });
+        writer.start();
+
+        final long todayMillis = EpochDay.toMillis(today);
+        final Uri weekUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, todayMillis);
+        final int reads = 500;
+        double sum = 0;
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                Cursor cursor = mContext.getContentResolver().query(weekUri, FORECAST_COLUMNS,
+                        null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                while (cursor.moveToNext()) {
+                    sum += cursor.getDouble(2) - cursor.getDouble(3);
+                }
+                cursor.close();
+            }
+            long cursorNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                ForecastSnapshot snapshot = ForecastSnapshot.get(TestUtilities.TEST_LOCATION);
+                for (int day = snapshot.indexOfFirstDayFrom(todayMillis);
+                     day < snapshot.getCount(); day++) {
+                    sum += snapshot.getHigh(day) - snapshot.getLow(day);
+                }
+            }
+            long snapshotNanos = System.nanoTime() - start;
+
+            Log.d(LOG_TAG, "Week read under concurrent writes: cursor " +
+                    cursorNanos / reads / 1000 + " us, snapshot " +
+                    snapshotNanos / reads / 1000 + " us (" + sum + ")");
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+    }
+
+    private ContentValues[] createWeek(int firstDay, int offset) {
+        ContentValues[] week = new ContentValues[7];
+        for (int i = 0; i < week.length; i++) {
+            week[i] = TestUtilities.createWeatherValues(mLocationRowId);
+            week[i].put(WeatherEntry.COLUMN_DATE, EpochDay.toMillis(firstDay + i));
+            week[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i + offset);
+            week[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i - offset);
+        }
+        return week;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+public class TestLocationGrid extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationGrid.class.getSimpleName();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, false);
+        mDb = mDbHelper.getWritableDatabase();
+
+        insertLocation("94043", "Mountain View", 37.386, -122.084);
+        insertLocation("94301", "Palo Alto", 37.442, -122.143);
+        insertLocation("10001", "New York", 40.750, -73.997);
+        insertLocation("Suva,FJ", "Suva", -18.141, 178.441);
+        insertLocation("Apia,WS", "Apia", -13.833, -171.767);
+    }
+
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testWithin() {
+        Cursor cursor = LocationGrid.within(mDb, null, 37, -123, 38, -122, null);
+        assertEquals("Error: Expected the two Bay Area locations", 2, cursor.getCount());
+        cursor.close();
+
+        // West greater than east crosses the antimeridian
+        cursor = LocationGrid.within(mDb, null, -20, 175, -10, -170, null);
+        assertEquals("Error: Expected Suva and Apia across the antimeridian",
+                2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testNearest() {
+        Cursor cursor = LocationGrid.nearest(mDb, null, 37.39, -122.08, 2);
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Mountain View",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        assertTrue("Error: Mountain View should be within a kilometer",
+                cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE)) < 1);
+        cursor.moveToNext();
+        assertEquals("Palo Alto",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+
+        // Far from everything, so the search has to grow; the closest is across the antimeridian
+        cursor = LocationGrid.nearest(mDb, null, -16, -179.5, 1);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Suva",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+
+        // More than there are
+        cursor = LocationGrid.nearest(mDb, null, 0, 0, 10);
+        assertEquals(5, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBadCoordinates() {
+        assertEquals(-122.5, LocationEntry.getCoordinateFromUri(
+                LocationEntry.buildNearestUri(37, -122.5, 1), LocationEntry.PARAM_LON));
+
+        Uri noLatitude = LocationEntry.CONTENT_URI.buildUpon()
+                .appendPath(LocationEntry.PATH_NEAREST)
+                .appendQueryParameter(LocationEntry.PARAM_LON, "-122.5")
+                .build();
+        assertRejected(noLatitude, LocationEntry.PARAM_LAT);
+        assertRejected(LocationEntry.buildNearestUri(Double.NaN, -122.5, 1),
+                LocationEntry.PARAM_LAT);
+        assertRejected(LocationEntry.buildNearestUri(37, Double.POSITIVE_INFINITY, 1),
+                LocationEntry.PARAM_LON);
+        assertRejected(LocationEntry.buildNearestUri(91, -122.5, 1), LocationEntry.PARAM_LAT);
+        assertRejected(LocationEntry.buildWithinUri(37, -181, 38, -122),
+                LocationEntry.PARAM_WEST);
+
+        // The provider turns them down instead of searching forever
+        try {
+            mContext.getContentResolver().query(
+                    LocationEntry.buildNearestUri(Double.NaN, -122.5, 1), null, null, null, null);
+            fail("Error: A nearest query with a NaN latitude was run");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertRejected(Uri uri, String param) {
+        try {
+            LocationEntry.getCoordinateFromUri(uri, param);
+            fail("Error: " + param + " of " + uri + " was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testGridFollowsTheLocationTable() {
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 40.7);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, -74.0);
+        mDb.update(LocationEntry.TABLE_NAME, moved,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94301"});
+
+        Cursor cursor = LocationGrid.within(mDb, null, 37, -123, 38, -122, null);
+        assertEquals("Error: A moved location was found at its old place", 1, cursor.getCount());
+        cursor.close();
+
+        mDb.delete(LocationEntry.TABLE_NAME, null, null);
+        cursor = LocationGrid.within(mDb, null, -90, -180, 90, 180, null);
+        assertEquals("Error: Deleted locations are still indexed", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private void insertLocation(String setting, String city, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, city);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        assertTrue(mDb.insert(LocationEntry.TABLE_NAME, null, values) != -1);
+    }
+}
@@ -24,9 +24,11 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -51,6 +53,11 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 WeatherEntry.CONTENT_URI,
                 null,
@@ -512,4 +519,213 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        The stats URI should summarize a date range in a single row computed by SQLite.
+     */
+    public void testWeatherStats() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // The first week of the bulk inserted days
+        long millisecondsInADay = 1000*60*60*24;
+        Uri statsUri = WeatherContract.StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE, TestUtilities.TEST_DATE + 6 * millisecondsInADay);
+        assertEquals("Error: the stats URI should return WeatherContract.StatsEntry.CONTENT_ITEM_TYPE",
+                WeatherContract.StatsEntry.CONTENT_ITEM_TYPE,
+                mContext.getContentResolver().getType(statsUri));
+
+        Cursor cursor = mContext.getContentResolver().query(statsUri, null, null, null, null);
+        assertEquals("Error: the stats URI should return exactly one row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(7, cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_DAYS)));
+        assertEquals(59.0, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_LOW)));
+        assertEquals(81.0, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_HIGH)));
+        assertEquals(62.0, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_MEAN_LOW)));
+        assertEquals(78.0, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_MEAN_HIGH)));
+        // 321 is drizzle, which counts as rain
+        assertEquals(7, cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_RAINY_DAYS)));
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE),
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_FIRST_DATE)));
+        cursor.close();
+
+        // A range with no forecasts gives no rows rather than a row of nulls
+        statsUri = WeatherContract.StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE - 10 * millisecondsInADay,
+                TestUtilities.TEST_DATE - 5 * millisecondsInADay);
+        cursor = mContext.getContentResolver().query(statsUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        getTodaySummary should return the first forecast from today on, and must not keep
+        serving a cached summary once the weather table changes.
+     */
+    public void testTodaySummary() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        Bundle summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherEntry.METHOD_GET_TODAY_SUMMARY, TestUtilities.TEST_LOCATION, null);
+        assertNull("Error: A location without forecasts should have no summary", summary);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, today);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherEntry.METHOD_GET_TODAY_SUMMARY, TestUtilities.TEST_LOCATION, null);
+        assertNotNull("Error: The summary was not refreshed after an insert", summary);
+        assertEquals(today, summary.getLong(WeatherEntry.COLUMN_DATE));
+        assertEquals(321, summary.getInt(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Asteroids", summary.getString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(75.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals(65.0, summary.getDouble(WeatherEntry.COLUMN_MIN_TEMP));
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues, null, null);
+
+        summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherEntry.METHOD_GET_TODAY_SUMMARY, TestUtilities.TEST_LOCATION, null);
+        assertEquals("Error: A stale summary was served after an update",
+                80.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+    }
+
+    public void testCurrentConditions() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        // The bulk insert test data is in the past, so move it to start today
+        int today = EpochDay.today();
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        for (int i = 0; i < bulkInsertContentValues.length; i++) {
+            bulkInsertContentValues[i].put(WeatherEntry.COLUMN_DATE, EpochDay.toMillis(today + i));
+        }
+        long beforeInsert = System.currentTimeMillis();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        long afterInsert = System.currentTimeMillis();
+
+        Cursor cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: Expected one current conditions row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(locationRowId, cursor.getLong(cursor.getColumnIndex(CurrentEntry.COLUMN_LOC_KEY)));
+        assertEquals(EpochDay.toMillis(today),
+                cursor.getLong(cursor.getColumnIndex(CurrentEntry.COLUMN_DATE)));
+        assertEquals(75.0, cursor.getDouble(cursor.getColumnIndex(CurrentEntry.COLUMN_MAX_TEMP)));
+        assertEquals(65.0, cursor.getDouble(cursor.getColumnIndex(CurrentEntry.COLUMN_MIN_TEMP)));
+        long fetchedAt = cursor.getLong(cursor.getColumnIndex(CurrentEntry.COLUMN_FETCHED_AT));
+        assertTrue("Error: The fetched at time isn't the insert's",
+                fetchedAt >= beforeInsert && fetchedAt <= afterInsert);
+
+        byte[] digest = cursor.getBlob(cursor.getColumnIndex(CurrentEntry.COLUMN_DIGEST));
+        cursor.close();
+        assertEquals("Error: The digest should hold a week of forecasts",
+                ForecastDigest.MAX_DAYS, ForecastDigest.getDayCount(digest));
+        assertEquals(321, ForecastDigest.getWeatherId(digest, 1));
+        assertEquals(76f, ForecastDigest.getHigh(digest, 1));
+        assertEquals(64f, ForecastDigest.getLow(digest, 1));
+
+        // An update rewrites the row, but nothing was fetched
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80.0);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(EpochDay.toMillis(today))});
+        cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(80.0, cursor.getDouble(cursor.getColumnIndex(CurrentEntry.COLUMN_MAX_TEMP)));
+        assertEquals("Error: An update moved the fetched at time", fetchedAt,
+                cursor.getLong(cursor.getColumnIndex(CurrentEntry.COLUMN_FETCHED_AT)));
+        cursor.close();
+
+        // Removing the forecasts must remove the row they were summarized into
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(CurrentEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: The current conditions outlived their forecasts", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testResolveLocation() {
+        Bundle extras = new Bundle();
+        extras.putString(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        extras.putDouble(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        extras.putDouble(LocationEntry.COLUMN_COORD_LONG, -147.353);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                LocationEntry.METHOD_RESOLVE, TestUtilities.TEST_LOCATION, extras);
+        long locationRowId = result.getLong(LocationEntry._ID);
+        assertTrue("Error: The location was not inserted", locationRowId > 0);
+
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                LocationEntry.METHOD_RESOLVE, TestUtilities.TEST_LOCATION, extras);
+        assertEquals("Error: Resolving a known location gave a different id",
+                locationRowId, result.getLong(LocationEntry._ID));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Resolving a known location inserted it again", 1, cursor.getCount());
+        cursor.close();
+
+        // A deleted location must not be resolved from the cache
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                LocationEntry.METHOD_RESOLVE, TestUtilities.TEST_LOCATION, extras);
+        long newRowId = result.getLong(LocationEntry._ID);
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, LocationEntry._ID + " = ?", new String[]{Long.toString(newRowId)}, null);
+        assertEquals("Error: A deleted location id was served from the cache",
+                1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBulkInsertLocations() {
+        ContentValues[] locations = new ContentValues[3];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "9970" + i);
+        }
+        // Already there, so it must be left alone and not counted
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locations[0]);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                LocationEntry.CONTENT_URI, locations);
+        assertEquals("Error: Only new locations should be counted", 2, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testQueryCount() {
+        Bundle metrics = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.MetricsEntry.METHOD_GET_METRICS, null, null);
+        long queryCount = metrics.getLong(WeatherContract.MetricsEntry.EXTRA_QUERY_COUNT);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        cursor.close();
+
+        metrics = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.MetricsEntry.METHOD_GET_METRICS, null, null);
+        assertEquals("Error: The query count must be kept even with metrics disabled",
+                queryCount + 1, metrics.getLong(WeatherContract.MetricsEntry.EXTRA_QUERY_COUNT));
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestProviderMetrics extends AndroidTestCase {
+
+    public void testRecord() {
+        ProviderMetrics metrics = new ProviderMetrics(true);
+        String match = WeatherProvider.getMatchName(WeatherProvider.WEATHER_WITH_LOCATION);
+
+        // Started 3ms ago, so it lands in the 2048-4096us bucket
+        long start = SystemClock.elapsedRealtimeNanos() - 3000000L;
+        metrics.record("query", match, start, 14, 9, "test/main");
+        metrics.record("query", match, metrics.start(), 1, 9, "test/sync");
+
+        Bundle operation = metrics.toBundle().getBundle(MetricsEntry.EXTRA_OPERATIONS)
+                .getBundle("query WEATHER_WITH_LOCATION");
+        assertNotNull("Error: The operation was not recorded", operation);
+        assertEquals(2, operation.getLong(MetricsEntry.KEY_CALLS));
+        assertEquals(15, operation.getLong(MetricsEntry.KEY_ROWS));
+        assertEquals(15 * 9, operation.getLong(MetricsEntry.KEY_CELLS));
+        assertEquals(1, operation.getLongArray(MetricsEntry.KEY_LATENCY_HISTOGRAM)[11]);
+        assertEquals(1, operation.getBundle(MetricsEntry.KEY_CALLERS).getLong("test/sync"));
+
+        StringWriter dump = new StringWriter();
+        metrics.dump(new PrintWriter(dump));
+        assertTrue(dump.toString().contains("query WEATHER_WITH_LOCATION: calls=2"));
+
+        metrics.reset();
+        assertTrue(metrics.toBundle().getBundle(MetricsEntry.EXTRA_OPERATIONS).isEmpty());
+    }
+
+    public void testDisabledRecordsNothing() {
+        ProviderMetrics metrics = new ProviderMetrics(false);
+        metrics.record("query", "WEATHER", metrics.start(), 14, 9, "test/main");
+        metrics.countQuery();
+
+        Bundle bundle = metrics.toBundle();
+        assertTrue(bundle.getBundle(MetricsEntry.EXTRA_OPERATIONS).isEmpty());
+        assertEquals(1, bundle.getLong(MetricsEntry.EXTRA_QUERY_COUNT));
+    }
+}
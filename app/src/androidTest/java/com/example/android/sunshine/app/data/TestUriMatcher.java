@@ -34,8 +34,18 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_STATS_DIR = WeatherContract.StatsEntry.buildStatsUri(LOCATION_QUERY, TEST_DATE, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.CitySearchEntry.buildSearchUri("mount");
+    private static final Uri TEST_LOCATION_NEAREST_DIR = WeatherContract.LocationEntry.buildNearestUri(64.7488, -147.353, 3);
+    private static final Uri TEST_LOCATION_WITHIN_DIR = WeatherContract.LocationEntry.buildWithinUri(60, -150, 70, -140);
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/current"
+    private static final Uri TEST_CURRENT_DIR = WeatherContract.CurrentEntry.CONTENT_URI;
+    private static final Uri TEST_CURRENT_WITH_LOCATION_ITEM = WeatherContract.CurrentEntry.buildCurrentLocation(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +61,23 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_DIR), WeatherProvider.WEATHER_STATS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST_DIR), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The LOCATION WITHIN URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_WITHIN_DIR), WeatherProvider.LOCATION_WITHIN);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The CURRENT URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_DIR), WeatherProvider.CURRENT);
+        assertEquals("Error: The CURRENT WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_WITH_LOCATION_ITEM), WeatherProvider.CURRENT_WITH_LOCATION);
     }
 }
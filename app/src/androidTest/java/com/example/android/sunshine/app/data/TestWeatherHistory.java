@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+public class TestWeatherHistory extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherHistory.class.getSimpleName();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, false);
+        mDb = mDbHelper.getWritableDatabase();
+        mLocationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: Failure to insert North Pole Location Values", mLocationRowId != -1);
+    }
+
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testWeekAndMonthStart() {
+        // 2014-12-20 was a Saturday; the Monday before it was 2014-12-15
+        int saturday = 16424;
+        assertEquals(16419, WeatherHistory.weekStart(saturday));
+        assertEquals(16419, WeatherHistory.weekStart(16419));
+        // 2014-12-01
+        assertEquals(16405, WeatherHistory.monthStart(saturday));
+    }
+
+    public void testArchiveMovesPastDays() {
+        int today = EpochDay.today();
+        for (int day = today - 3; day < today + 3; day++) {
+            insertWeather(day, 10.0 + day % 5, 20.0 + day % 5);
+        }
+
+        mDb.beginTransaction();
+        int archived;
+        HashSet<Long> locationIds = new HashSet<Long>();
+        try {
+            archived = WeatherHistory.archive(mDb, mDbHelper.getStorage(),
+                    EpochDay.toMillis(today - 1), locationIds);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        assertEquals("Error: Past days were not archived", 3, archived);
+        assertEquals(Collections.singleton(mLocationRowId), locationIds);
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_DAY));
+
+        Cursor cursor = mDb.query(HistoryEntry.TABLE_NAME, null, null, null, null, null,
+                HistoryEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals(today - 3, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DATE)));
+        cursor.close();
+    }
+
+    public void testCompactionRollsUpAndIsBounded() {
+        final int today = EpochDay.today();
+        final int days = 400;
+        for (int day = today - days; day < today; day++) {
+            insertHistoryDay(day, day % 7, 10 + day % 7);
+        }
+
+        // A tiny budget must leave work behind
+        mDb.beginTransaction();
+        try {
+            assertEquals(2, WeatherHistory.compact(mDb, today, 2));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        // Run passes until there is nothing left to do
+        int passes = 0;
+        int done;
+        do {
+            mDb.beginTransaction();
+            try {
+                done = WeatherHistory.compact(mDb, today, WeatherHistory.MAX_BUCKETS_PER_PASS);
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            assertTrue("Error: Compaction did more work than it was allowed",
+                    done <= WeatherHistory.MAX_BUCKETS_PER_PASS);
+            assertTrue("Error: Compaction did not converge", ++passes < 20);
+        } while (done == WeatherHistory.MAX_BUCKETS_PER_PASS);
+
+        // No daily rows past the daily window, no weekly rows past the weekly window
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_DAY + " AND " +
+                        HistoryEntry.COLUMN_DATE + " < " +
+                        WeatherHistory.weekStart(today - WeatherHistory.DAILY_RETENTION_DAYS)));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_WEEK + " AND " +
+                        HistoryEntry.COLUMN_DATE + " < " +
+                        WeatherHistory.monthStart(today - WeatherHistory.WEEKLY_RETENTION_DAYS)));
+        assertTrue("Error: No monthly rows were written", DatabaseUtils.queryNumEntries(mDb,
+                HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_MONTH) > 0);
+
+        // Every day is still accounted for, and the extremes survived the roll up
+        assertEquals(days, DatabaseUtils.longForQuery(mDb, "SELECT SUM(" +
+                HistoryEntry.COLUMN_SAMPLES + ") FROM " + HistoryEntry.TABLE_NAME, null));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT MIN(" +
+                HistoryEntry.COLUMN_MIN_TEMP + ") FROM " + HistoryEntry.TABLE_NAME, null));
+        assertEquals(16, DatabaseUtils.longForQuery(mDb, "SELECT MAX(" +
+                HistoryEntry.COLUMN_MAX_TEMP + ") FROM " + HistoryEntry.TABLE_NAME, null));
+    }
+
+    public void testRollUpKeepsMostSevereCondition() {
+        final int today = EpochDay.today();
+        // Two whole weeks that are due to be rolled up
+        final int week = WeatherHistory.weekStart(today - WeatherHistory.DAILY_RETENTION_DAYS) - 14;
+        // Clear, drizzle, rain and snow: snow, though drizzle has the lowest code
+        final int[] firstWeek = {800, 300, 501, 601, 800, 804, 300};
+        // Drizzle, a thunderstorm and the tornado
+        final int[] secondWeek = {300, 211, 781, 800, 800, 800, 800};
+        for (int day = 0; day < 7; day++) {
+            insertHistoryDay(week + day, firstWeek[day], 10, 20);
+            insertHistoryDay(week + 7 + day, secondWeek[day], 10, 20);
+        }
+
+        mDb.beginTransaction();
+        try {
+            WeatherHistory.compact(mDb, today, WeatherHistory.MAX_BUCKETS_PER_PASS);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        assertEquals(601, weekWeatherId(week));
+        assertEquals(781, weekWeatherId(week + 7));
+        assertTrue(WeatherHistory.getSeverity(211) > WeatherHistory.getSeverity(601));
+        assertTrue(WeatherHistory.getSeverity(501) > WeatherHistory.getSeverity(300));
+        assertEquals(0, WeatherHistory.getSeverity(900));
+    }
+
+    private long weekWeatherId(int week) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT " + HistoryEntry.COLUMN_WEATHER_ID +
+                " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_PERIOD +
+                " = " + HistoryEntry.PERIOD_WEEK + " AND " + HistoryEntry.COLUMN_DATE + " = " +
+                week, null);
+    }
+
+    public void testUpgradeKeepsHistory() {
+        // From the version before this one, and from the first one with a history table
+        assertHistorySurvivesUpgradeFrom(6);
+        assertHistorySurvivesUpgradeFrom(3);
+    }
+
+    private void assertHistorySurvivesUpgradeFrom(int version) {
+        final int today = EpochDay.today();
+        mDb.delete(HistoryEntry.TABLE_NAME, null, null);
+        for (int day = today - 10; day < today; day++) {
+            insertHistoryDay(day, day % 7, 10 + day % 7);
+        }
+
+        // Take the schema back to what that version created
+        mDb.execSQL("DROP INDEX IF EXISTS " + WeatherEntry.TABLE_NAME + "_location_date");
+        if (version < 6) {
+            LocationGrid.dropTables(mDb);
+        }
+        if (version < 5) {
+            CitySearch.dropTables(mDb);
+        }
+        if (version < 4) {
+            mDb.execSQL("DROP TABLE " + WeatherContract.CurrentEntry.TABLE_NAME);
+        }
+        mDb.setVersion(version);
+        mDb.close();
+
+        mDbHelper = new WeatherDbHelper(mContext, false);
+        mDb = mDbHelper.getWritableDatabase();
+
+        assertEquals("Error: History was lost upgrading from version " + version, 10,
+                DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                        HistoryEntry.COLUMN_LOC_KEY + " = " + mLocationRowId));
+        assertEquals("Error: The location was lost upgrading from version " + version, 1,
+                DatabaseUtils.queryNumEntries(mDb, LocationEntry.TABLE_NAME,
+                        LocationEntry._ID + " = " + mLocationRowId));
+        // The tables added since are there, and know about the location
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, LocationGrid.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master " +
+                "WHERE name = '" + WeatherEntry.TABLE_NAME + "_location_date'", null));
+    }
+
+    private void insertWeather(int day, double min, double max) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, EpochDay.toMillis(day));
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+    }
+
+    private void insertHistoryDay(int day, double min, double max) {
+        insertHistoryDay(day, 800, min, max);
+    }
+
+    private void insertHistoryDay(int day, int weatherId, double min, double max) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, mLocationRowId);
+        values.put(HistoryEntry.COLUMN_PERIOD, HistoryEntry.PERIOD_DAY);
+        values.put(HistoryEntry.COLUMN_DATE, day);
+        values.put(HistoryEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, min);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, max);
+        values.put(HistoryEntry.COLUMN_MEAN_MIN_TEMP, min);
+        values.put(HistoryEntry.COLUMN_MEAN_MAX_TEMP, max);
+        values.put(HistoryEntry.COLUMN_HUMIDITY, 50.0);
+        values.put(HistoryEntry.COLUMN_PRESSURE, 1013.0);
+        values.put(HistoryEntry.COLUMN_WIND_SPEED, 3.0);
+        values.put(HistoryEntry.COLUMN_SAMPLES, 1);
+        assertTrue(mDb.insert(HistoryEntry.TABLE_NAME, null, values) != -1);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherQueries extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherQueries.class.getSimpleName();
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private SQLiteQueryBuilder mBuilder;
+    private WeatherQueries mQueries;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, false);
+        mDb = mDbHelper.getWritableDatabase();
+        mBuilder = WeatherProvider.buildWeatherByLocationSettingQueryBuilder(
+                mDbHelper.getStorage());
+        mQueries = new WeatherQueries(mBuilder, mDbHelper.getStorage(), new LocationRegistry());
+
+        long locationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        for (int i = 0; i < 14; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+            values.put(WeatherEntry.COLUMN_DATE, dayMillis(i));
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+        }
+    }
+
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testQueries() {
+        assertForecastRows(mQueries.query(mDb, WeatherQueries.BY_LOCATION, FORECAST_COLUMNS,
+                SORT_ORDER, TestUtilities.TEST_LOCATION, 0), 14);
+        assertForecastRows(mQueries.query(mDb, WeatherQueries.BY_LOCATION_FROM_DATE,
+                FORECAST_COLUMNS, SORT_ORDER, TestUtilities.TEST_LOCATION, dayMillis(10)), 4);
+        assertForecastRows(mQueries.query(mDb, WeatherQueries.BY_LOCATION_AND_DATE,
+                FORECAST_COLUMNS, SORT_ORDER, TestUtilities.TEST_LOCATION, dayMillis(3)), 1);
+        assertForecastRows(mQueries.query(mDb, WeatherQueries.BY_LOCATION, FORECAST_COLUMNS,
+                SORT_ORDER, "nowhere", 0), 0);
+
+        // Same plan for an equal projection, whatever array it comes in
+        assertSame(
+                mQueries.getSql(WeatherQueries.BY_LOCATION, FORECAST_COLUMNS, SORT_ORDER, null),
+                mQueries.getSql(WeatherQueries.BY_LOCATION, FORECAST_COLUMNS.clone(),
+                        SORT_ORDER, null));
+        assertNotSame(
+                mQueries.getSql(WeatherQueries.BY_LOCATION, FORECAST_COLUMNS, SORT_ORDER, null),
+                mQueries.getSql(WeatherQueries.BY_LOCATION, FORECAST_COLUMNS, null, null));
+    }
+
+    public void testLocationIsOnlyJoinedWhenNeeded() {
+        final String[] weatherColumns = {
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_MAX_TEMP
+        };
+        assertFalse(WeatherQueries.needsLocation(weatherColumns, SORT_ORDER));
+        assertTrue(WeatherQueries.needsLocation(weatherColumns,
+                LocationEntry.COLUMN_CITY_NAME + " DESC, " + SORT_ORDER));
+        assertTrue(WeatherQueries.needsLocation(FORECAST_COLUMNS, SORT_ORDER));
+        assertTrue(WeatherQueries.needsLocation(null, null));
+
+        String sql = mQueries.getSql(WeatherQueries.BY_LOCATION_FROM_DATE, weatherColumns,
+                SORT_ORDER, null);
+        assertFalse("Error: A query without location columns joins the location table: " + sql,
+                sql.contains(" JOIN "));
+
+        Cursor cursor = mQueries.query(mDb, WeatherQueries.BY_LOCATION_FROM_DATE,
+                weatherColumns, SORT_ORDER, TestUtilities.TEST_LOCATION, dayMillis(10));
+        assertEquals(4, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(dayMillis(10), cursor.getLong(0));
+        assertEquals(85.0, cursor.getDouble(1));
+        cursor.close();
+    }
+
+    /*
+        Per query overhead of building the SQL with the query builder and binding string
+        arguments, against the cached SQL with typed binds.  Each cursor reads a single row, so
+        the difference is mostly what happens before SQLite runs the statement.
+     */
+    public void testPerQueryOverheadBenchmark() {
+        final String selection = WeatherContract.LocationEntry.TABLE_NAME + "." +
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                WeatherEntry.COLUMN_DATE + " = ? ";
+        final int queries = 2000;
+        double sum = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            Cursor cursor = mBuilder.query(mDb, FORECAST_COLUMNS, selection,
+                    new String[]{TestUtilities.TEST_LOCATION, Long.toString(dayMillis(i % 14))},
+                    null, null, SORT_ORDER);
+            cursor.moveToFirst();
+            sum += cursor.getDouble(3);
+            cursor.close();
+        }
+        long builderNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            Cursor cursor = mQueries.query(mDb, WeatherQueries.BY_LOCATION_AND_DATE,
+                    FORECAST_COLUMNS, SORT_ORDER, TestUtilities.TEST_LOCATION, dayMillis(i % 14));
+            cursor.moveToFirst();
+            sum += cursor.getDouble(3);
+            cursor.close();
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "Per query: query builder " + builderNanos / queries / 1000 +
+                " us, cached plan " + cachedNanos / queries / 1000 + " us (" + sum + ")");
+    }
+
+    private void assertForecastRows(Cursor cursor, int expectedCount) {
+        assertEquals(expectedCount, cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(5));
+                assertEquals(75.0 + (cursor.getLong(1) - dayMillis(0)) /
+                        EpochDay.DAY_IN_MILLIS, cursor.getDouble(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long dayMillis(int day) {
+        return TestUtilities.TEST_DATE + day * EpochDay.DAY_IN_MILLIS;
+    }
+}
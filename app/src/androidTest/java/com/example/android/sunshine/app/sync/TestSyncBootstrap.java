@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestSyncBootstrap extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncBootstrap.class.getSimpleName();
+
+    public void testAccountIsResolvedOnce() throws Exception {
+        Future<Account> future = SyncBootstrap.getAccount(mContext);
+        Account account = future.get(10, TimeUnit.SECONDS);
+        assertNotNull("Error: The sync account couldn't be created", account);
+        assertEquals(mContext.getString(R.string.sync_account_type), account.type);
+        assertSame("Error: The account was looked up again",
+                future, SyncBootstrap.getAccount(mContext));
+    }
+
+    /*
+        An account removed in the system settings is created again the next time a sync is
+        asked for, instead of syncs going to an account that is gone.
+     */
+    public void testRemovedAccountIsCreatedAgain() throws Exception {
+        final Future<Account> future = SyncBootstrap.getAccount(mContext);
+        final Account account = future.get(10, TimeUnit.SECONDS);
+        assertNotNull(account);
+        final AccountManager accountManager = AccountManager.get(mContext);
+        assertTrue(accountManager.removeAccount(account, null, null)
+                .getResult(10, TimeUnit.SECONDS));
+
+        SyncBootstrap.syncImmediately(mContext);
+        new PollingCheck(10000) {
+            @Override
+            protected boolean check() {
+                return accountManager.getPassword(account) != null;
+            }
+        }.run();
+        assertNotSame("Error: The removed account is still the one kept",
+                future, SyncBootstrap.getAccount(mContext));
+    }
+
+    /*
+        What a caller on the main thread waits: the account manager's binder call, or asking
+        for the future.
+     */
+    public void testAccountBenchmark() throws Exception {
+        SyncBootstrap.getAccount(mContext).get(10, TimeUnit.SECONDS);
+        final int calls = 100;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            assertNotNull(SunshineSyncAdapter.getSyncAccount(mContext));
+        }
+        long lookupNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            assertNotNull(SyncBootstrap.getAccount(mContext));
+        }
+        long futureNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "Sync account: lookup " + lookupNanos / calls / 1000 + " us, future " +
+                futureNanos / calls / 1000 + " us");
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.bumptech.glide.BitmapRequestBuilder;
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Loads the art pack's weather art for each surface that shows it, and warms Glide's caches
+ * with it after a sync so that the first display doesn't wait on the network.
+ *
+ * Glide's memory cache is keyed by the size and the transformation as well as the url, so
+ * every surface loads its art through here at a fixed size, and the prefetch asks for exactly
+ * the same requests.  The source image goes to the disk cache as well, so a size that wasn't
+ * prefetched is still decoded without a download.
+ *
+ * Memory cache hits are counted per surface.  Glide doesn't tell a disk cache hit from a
+ * download, so everything else counts as a miss.
+ */
+public final class ArtPrefetcher {
+
+    private static final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    public static final int SURFACE_LIST = 0;
+    public static final int SURFACE_LIST_TODAY = 1;
+    public static final int SURFACE_DETAIL = 2;
+    public static final int SURFACE_WIDGET = 3;
+    public static final int SURFACE_NOTIFICATION = 4;
+    private static final int SURFACE_COUNT = 5;
+
+    private static final String[] SURFACE_NAMES = {
+            "list", "list today", "detail", "widget", "notification"
+    };
+
+    private static final AtomicLongArray sRequests = new AtomicLongArray(SURFACE_COUNT);
+    private static final AtomicLongArray sMemoryHits = new AtomicLongArray(SURFACE_COUNT);
+
+    // Width and height in pixels by surface, read once from the resources
+    private static volatile int[][] sSizes;
+
+    private ArtPrefetcher() {
+    }
+
+    /**
+     * Starts a load of the art into an ImageView, for the list and the detail view.  Callers add
+     * their placeholders and animations; anything that changes the cache key would defeat the
+     * prefetch.
+     */
+    public static DrawableRequestBuilder<String> loadArt(RequestManager requests, Context context,
+                                                         int surface, String url) {
+        return drawableRequest(requests, context, surface, url)
+                .listener(new HitCounter<GlideDrawable>(surface));
+    }
+
+    /**
+     * Loads the art as a bitmap, for the widgets and the notification.  Blocks, so it must not
+     * be called on the main thread.
+     *
+     * @param fallbackResId the app's own art, returned at the surface's size instead when the
+     *                      art can't be loaded; 0 for none
+     * @return the art, or null if it can't be loaded and there is no fallback
+     */
+    public static Bitmap getArtBitmap(Context context, int surface, String url, int fallbackResId)
+            throws InterruptedException {
+        int[] size = getSize(context, surface);
+        try {
+            return bitmapRequest(Glide.with(context), url)
+                    .listener(new HitCounter<Bitmap>(surface))
+                    .into(size[0], size[1])
+                    .get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving art from " + url, e);
+        }
+        return fallbackResId != 0 ? getArtBitmap(context, surface, fallbackResId) : null;
+    }
+
+    /**
+     * @return the app's own art at the surface's size; see {@link ArtVariantStore}
+     */
+    public static Bitmap getArtBitmap(Context context, int surface, int resId) {
+        int[] size = getSize(context, surface);
+        return ArtVariantStore.get(context, resId, size[0], size[1]);
+    }
+
+    /**
+     * Warms the caches with the art for each condition in the forecast, at the sizes the
+     * surfaces showing that day need.  Today's art is also warmed for the list's today row and
+     * the notification.  Blocks until it is done; meant for the sync thread.
+     */
+    public static void prefetch(Context context, ForecastSnapshot forecast) {
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        if (settings.localGraphics) {
+            return;
+        }
+        context = context.getApplicationContext();
+        final RequestManager requests = Glide.with(context);
+        final int first = forecast.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+
+        // Some surfaces share a size, and a condition usually comes up on several days
+        final boolean[] warmed = new boolean[WeatherConditions.KIND_COUNT * SURFACE_COUNT];
+        int loads = 0;
+        for (int day = first; day < forecast.getCount(); day++) {
+            final int kind = WeatherConditions.getKind(forecast.getWeatherId(day));
+            final String url = settings.getArtUrl(kind);
+            if (url == null) {
+                continue;
+            }
+            for (int surface = 0; surface < SURFACE_COUNT; surface++) {
+                boolean todayOnly = surface == SURFACE_LIST_TODAY ||
+                        surface == SURFACE_NOTIFICATION;
+                int sameRequest = getSameRequest(context, surface);
+                if ((todayOnly && day != first) ||
+                        warmed[kind * SURFACE_COUNT + sameRequest]) {
+                    continue;
+                }
+                warmed[kind * SURFACE_COUNT + sameRequest] = true;
+                warm(context, requests, surface, url);
+                loads++;
+            }
+        }
+        Log.d(LOG_TAG, "Prefetched " + loads + " art loads. " + getStats());
+    }
+
+    public static long getRequestCount(int surface) {
+        return sRequests.get(surface);
+    }
+
+    public static long getMemoryHitCount(int surface) {
+        return sMemoryHits.get(surface);
+    }
+
+    /**
+     * @return the memory cache hits of each surface, e.g. "list 12/14, detail 1/1"
+     */
+    public static String getStats() {
+        StringBuilder stats = new StringBuilder("Art memory cache hits:");
+        for (int surface = 0; surface < SURFACE_COUNT; surface++) {
+            stats.append(surface == 0 ? " " : ", ")
+                    .append(SURFACE_NAMES[surface]).append(' ')
+                    .append(sMemoryHits.get(surface)).append('/').append(sRequests.get(surface));
+        }
+        return stats.toString();
+    }
+
+    private static void warm(Context context, RequestManager requests, int surface, String url) {
+        int[] size = getSize(context, surface);
+        FutureTarget<?> target;
+        if (surface == SURFACE_WIDGET || surface == SURFACE_NOTIFICATION) {
+            target = bitmapRequest(requests, url).into(size[0], size[1]);
+        } else {
+            target = drawableRequest(requests, context, surface, url).into(size[0], size[1]);
+        }
+        try {
+            target.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.w(LOG_TAG, "Error prefetching " + url, e);
+        } finally {
+            // Releasing the image is what moves it into the memory cache
+            Glide.clear(target);
+        }
+    }
+
+    private static DrawableRequestBuilder<String> drawableRequest(RequestManager requests,
+                                                                 Context context, int surface,
+                                                                 String url) {
+        int[] size = getSize(context, surface);
+        return requests.load(url)
+                .fitCenter()
+                .override(size[0], size[1])
+                .diskCacheStrategy(DiskCacheStrategy.ALL);
+    }
+
+    private static BitmapRequestBuilder<String, Bitmap> bitmapRequest(RequestManager requests,
+                                                                      String url) {
+        // Glide's default already, but the widgets and the notification send these in a parcel:
+        // art without transparency is decoded at half the size
+        return requests.load(url)
+                .asBitmap()
+                .format(DecodeFormat.PREFER_RGB_565)
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.ALL);
+    }
+
+    /**
+     * @return the first surface whose requests have the same cache key as the surface's
+     */
+    private static int getSameRequest(Context context, int surface) {
+        boolean bitmap = surface == SURFACE_WIDGET || surface == SURFACE_NOTIFICATION;
+        int[] size = getSize(context, surface);
+        for (int other = 0; other < surface; other++) {
+            boolean otherBitmap = other == SURFACE_WIDGET || other == SURFACE_NOTIFICATION;
+            int[] otherSize = getSize(context, other);
+            if (bitmap == otherBitmap && size[0] == otherSize[0] && size[1] == otherSize[1]) {
+                return other;
+            }
+        }
+        return surface;
+    }
+
+    private static int[] getSize(Context context, int surface) {
+        int[][] sizes = sSizes;
+        if (sizes == null) {
+            Resources resources = context.getResources();
+            int list = resources.getDimensionPixelSize(R.dimen.list_icon);
+            int today = resources.getDimensionPixelSize(R.dimen.today_icon);
+            sizes = new int[][]{
+                    {list, list},
+                    {today, today},
+                    {today, today},
+                    {list, list},
+                    {
+                            resources.getDimensionPixelSize(
+                                    android.R.dimen.notification_large_icon_width),
+                            resources.getDimensionPixelSize(
+                                    android.R.dimen.notification_large_icon_height)
+                    }
+            };
+            sSizes = sizes;
+        }
+        return sizes[surface];
+    }
+
+    private static final class HitCounter<R> implements RequestListener<String, R> {
+        private final int mSurface;
+
+        HitCounter(int surface) {
+            mSurface = surface;
+        }
+
+        @Override
+        public boolean onException(Exception e, String model, Target<R> target,
+                                   boolean isFirstResource) {
+            sRequests.incrementAndGet(mSurface);
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(R resource, String model, Target<R> target,
+                                       boolean isFromMemoryCache, boolean isFirstResource) {
+            sRequests.incrementAndGet(mSurface);
+            if (isFromMemoryCache) {
+                sMemoryHits.incrementAndGet(mSurface);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.LruCache;
+
+/**
+ * The app's own weather art, decoded once for each size it's shown at.
+ *
+ * The resources are decoded subsampled to about the size they're needed at, then drawn once
+ * into a bitmap of exactly that size, which is kept.  Art without transparency is kept as
+ * RGB_565, half the memory of ARGB_8888 and half the size of the parcel a widget or a
+ * notification sends it in.  Art from an art pack is sized by Glide instead; see
+ * {@link ArtPrefetcher}.
+ */
+public final class ArtVariantStore {
+
+    // A few dozen variants at most; this is far more than they need
+    private static final LruCache<Long, Bitmap> sVariants =
+            new LruCache<Long, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory() / 32,
+                    Integer.MAX_VALUE)) {
+                @Override
+                protected int sizeOf(Long key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+
+    private ArtVariantStore() {
+    }
+
+    /**
+     * @return the drawable resource scaled to fit within the width and the height, keeping its
+     * aspect ratio, or null if it can't be decoded
+     */
+    public static Bitmap get(Context context, int resId, int width, int height) {
+        final Long key = ((long) resId << 32) | ((long) width << 16) | height;
+        Bitmap variant = sVariants.get(key);
+        if (variant == null) {
+            variant = decode(context, resId, width, height);
+            if (variant != null) {
+                sVariants.put(key, variant);
+            }
+        }
+        return variant;
+    }
+
+    private static Bitmap decode(Context context, int resId, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Sized from the pixels in the file, whatever density folder it came from
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(context.getResources(), resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // The largest power of two that still leaves at least the size needed
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width &&
+                options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap source = BitmapFactory.decodeResource(context.getResources(), resId, options);
+        if (source == null) {
+            return null;
+        }
+        Bitmap variant = fit(source, width, height);
+        if (variant != source) {
+            source.recycle();
+        }
+        return variant;
+    }
+
+    /**
+     * @return the source scaled to fit within the width and the height, in RGB_565 unless it
+     * has transparency
+     */
+    static Bitmap fit(Bitmap source, int width, int height) {
+        final float scale = Math.min((float) width / source.getWidth(),
+                (float) height / source.getHeight());
+        final int fitWidth = Math.max(1, Math.round(source.getWidth() * scale));
+        final int fitHeight = Math.max(1, Math.round(source.getHeight() * scale));
+        final Bitmap.Config config = source.hasAlpha() ?
+                Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        if (fitWidth == source.getWidth() && fitHeight == source.getHeight() &&
+                source.getConfig() == config) {
+            return source;
+        }
+
+        Bitmap variant = Bitmap.createBitmap(fitWidth, fitHeight, config);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        new Canvas(variant).drawBitmap(source, null, new Rect(0, 0, fitWidth, fitHeight), paint);
+        return variant;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.data.EpochDay;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * The date labels behind {@link Utility}'s day helpers, e.g. "Today, June 24", "Wednesday" or
+ * "Mon Jun 03".  The formatters are built once and every label is remembered by epoch day, so
+ * the list, the widgets and the notification format each day once.
+ *
+ * A label depends on the current day, the timezone and the locale.  The labels are dropped
+ * when the day changes, checked on every call, when {@link #onTimeZoneChanged()} or
+ * {@link #onLocaleChanged()} is called, and when the default locale is seen to have changed.
+ */
+public final class DayLabels {
+
+    private static final int FRIENDLY = 0;
+    private static final int FRIENDLY_LONG_TODAY = 1;
+    private static final int FULL_FRIENDLY = 2;
+    private static final int DAY_NAME = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int KINDS = 5;
+
+    // More days than a forecast has, so only a caller going through history ever clears it
+    private static final int MAX_DAYS = 64;
+
+    // Replaced as a whole when it no longer applies
+    private static volatile Labels sLabels;
+
+    private DayLabels() {
+    }
+
+    public static String getFriendlyDayString(Context context, long dateInMillis,
+                                              boolean displayLongToday) {
+        return labels(context).get(displayLongToday ? FRIENDLY_LONG_TODAY : FRIENDLY,
+                EpochDay.fromMillis(dateInMillis), dateInMillis);
+    }
+
+    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        return labels(context).get(FULL_FRIENDLY, EpochDay.fromMillis(dateInMillis),
+                dateInMillis);
+    }
+
+    public static String getDayName(Context context, long dateInMillis) {
+        return labels(context).get(DAY_NAME, EpochDay.fromMillis(dateInMillis), dateInMillis);
+    }
+
+    public static String getFormattedMonthDay(Context context, long dateInMillis) {
+        return labels(context).get(MONTH_DAY, EpochDay.fromMillis(dateInMillis), dateInMillis);
+    }
+
+    /**
+     * Drops the labels, and the formatters built for the old timezone.
+     */
+    public static void onTimeZoneChanged() {
+        sLabels = null;
+    }
+
+    public static void onLocaleChanged() {
+        sLabels = null;
+    }
+
+    private static Labels labels(Context context) {
+        Labels labels = sLabels;
+        final int today = EpochDay.today();
+        if (labels == null || labels.today != today || labels.locale != Locale.getDefault()) {
+            labels = new Labels(context.getApplicationContext(), today);
+            sLabels = labels;
+        }
+        return labels;
+    }
+
+    private static final class Labels {
+        final int today;
+        final Locale locale;
+        private final Context mContext;
+        private final String mToday;
+        private final String mTomorrow;
+        // SimpleDateFormat isn't thread-safe; these are only used holding the lock on this
+        private final SimpleDateFormat mShortDateFormat;
+        private final SimpleDateFormat mDayFormat;
+        private final SimpleDateFormat mMonthDayFormat;
+        private final SparseArray<String>[] mLabels;
+
+        @SuppressWarnings("unchecked")
+        Labels(Context context, int today) {
+            this.today = today;
+            this.locale = Locale.getDefault();
+            mContext = context;
+            mToday = context.getString(R.string.today);
+            mTomorrow = context.getString(R.string.tomorrow);
+            mShortDateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+            mDayFormat = new SimpleDateFormat("EEEE", locale);
+            mMonthDayFormat = new SimpleDateFormat("MMMM dd", locale);
+            mLabels = new SparseArray[KINDS];
+            for (int kind = 0; kind < KINDS; kind++) {
+                mLabels[kind] = new SparseArray<String>();
+            }
+        }
+
+        synchronized String get(int kind, int day, long dateInMillis) {
+            SparseArray<String> labels = mLabels[kind];
+            String label = labels.get(day);
+            if (label == null) {
+                label = format(kind, day, dateInMillis);
+                if (labels.size() == MAX_DAYS) {
+                    labels.clear();
+                }
+                labels.put(day, label);
+            }
+            return label;
+        }
+
+        private String format(int kind, int day, long dateInMillis) {
+            switch (kind) {
+                case FRIENDLY_LONG_TODAY:
+                    // For today: "Today, June 8"
+                    if (day == today) {
+                        return mContext.getString(R.string.format_full_friendly_date, mToday,
+                                get(MONTH_DAY, day, dateInMillis));
+                    }
+                    return get(FRIENDLY, day, dateInMillis);
+                case FRIENDLY:
+                    // For the next week: "Tomorrow", "Wednesday"; after that: "Mon Jun 8"
+                    if (day < today + 7) {
+                        return get(DAY_NAME, day, dateInMillis);
+                    }
+                    return mShortDateFormat.format(dateInMillis);
+                case FULL_FRIENDLY:
+                    return mContext.getString(R.string.format_full_friendly_date,
+                            get(DAY_NAME, day, dateInMillis), get(MONTH_DAY, day, dateInMillis));
+                case DAY_NAME:
+                    if (day == today) {
+                        return mToday;
+                    } else if (day == today + 1) {
+                        return mTomorrow;
+                    }
+                    return mDayFormat.format(dateInMillis);
+                case MONTH_DAY:
+                    return mMonthDayFormat.format(dateInMillis);
+            }
+            throw new IllegalArgumentException("Unknown label: " + kind);
+        }
+    }
+}
@@ -44,7 +44,8 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 /**
  * A placeholder fragment containing a simple view.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
+        PresentationChanges.Listener {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
@@ -99,6 +100,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private TextView mPressureView;
     private TextView mPressureLabelView;
 
+    // The loaded weather, owned by the loader
+    private Cursor mData;
+
     public DetailFragment() {
         setHasOptionsMenu(true);
     }
@@ -125,9 +129,16 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         mWindLabelView = (TextView) rootView.findViewById(R.id.detail_wind_label_textview);
         mPressureView = (TextView) rootView.findViewById(R.id.detail_pressure_textview);
         mPressureLabelView = (TextView) rootView.findViewById(R.id.detail_pressure_label_textview);
+        PresentationChanges.addListener(this);
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        PresentationChanges.removeListener(this);
+        super.onDestroyView();
+    }
+
     private void finishCreatingMenu(Menu menu) {
         // Retrieve the share menu item
         MenuItem menuItem = menu.findItem(R.id.action_share);
@@ -191,6 +202,32 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mData = data;
+        bindWeather(data);
+        AppCompatActivity activity = (AppCompatActivity)getActivity();
+        Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
+
+        // We need to start the enter transition after the data has loaded
+        if ( mTransitionAnimation ) {
+            activity.supportStartPostponedEnterTransition();
+
+            if ( null != toolbarView ) {
+                activity.setSupportActionBar(toolbarView);
+
+                activity.getSupportActionBar().setDisplayShowTitleEnabled(false);
+                activity.getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            }
+        } else {
+            if ( null != toolbarView ) {
+                Menu menu = toolbarView.getMenu();
+                if ( null != menu ) menu.clear();
+                toolbarView.inflateMenu(R.menu.detailfragment);
+                finishCreatingMenu(toolbarView.getMenu());
+            }
+        }
+    }
+
+    private void bindWeather(Cursor data) {
         if (data != null && data.moveToFirst()) {
             ViewParent vp = getView().getParent();
             if ( vp instanceof CardView ) {
@@ -204,8 +241,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
             } else {
                 // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                ArtPrefetcher.loadArt(Glide.with(this), getActivity(),
+                        ArtPrefetcher.SURFACE_DETAIL,
+                        Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
                         .error(Utility.getArtResourceForWeatherCondition(weatherId))
                         .crossFade()
                         .into(mIconView);
@@ -262,31 +300,19 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
             // We still need this for the share intent
             mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
-
         }
-        AppCompatActivity activity = (AppCompatActivity)getActivity();
-        Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
-
-        // We need to start the enter transition after the data has loaded
-        if ( mTransitionAnimation ) {
-            activity.supportStartPostponedEnterTransition();
-
-            if ( null != toolbarView ) {
-                activity.setSupportActionBar(toolbarView);
+    }
 
-                activity.getSupportActionBar().setDisplayShowTitleEnabled(false);
-                activity.getSupportActionBar().setDisplayHomeAsUpEnabled(true);
-            }
-        } else {
-            if ( null != toolbarView ) {
-                Menu menu = toolbarView.getMenu();
-                if ( null != menu ) menu.clear();
-                toolbarView.inflateMenu(R.menu.detailfragment);
-                finishCreatingMenu(toolbarView.getMenu());
-            }
+    @Override
+    public void onPresentationChanged(SettingsSnapshot settings) {
+        // Same weather, shown differently, so the loaded row is bound again
+        if (mData != null && !mData.isClosed()) {
+            bindWeather(mData);
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) { }
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mData = null;
+    }
 }
\ No newline at end of file
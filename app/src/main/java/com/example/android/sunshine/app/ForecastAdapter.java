@@ -30,7 +30,9 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -45,6 +47,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // What's shown, built from mCursor
+    private List<ForecastRow> mRows = Collections.emptyList();
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +77,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mRows.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +90,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Rows are identified by their date, so changes can be dispatched per item
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,26 +128,17 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        // Everything was formatted when the row was built, so this only sets views
+        ForecastRow row = mRows.get(position);
+        boolean useLongToday = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = useLongToday ? row.artResourceId : row.iconResourceId;
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( row.artUrl == null ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+            ArtPrefetcher.loadArt(Glide.with(mContext), mContext,
+                    useLongToday ? ArtPrefetcher.SURFACE_LIST_TODAY : ArtPrefetcher.SURFACE_LIST,
+                    row.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -151,36 +146,22 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, row.transitionName);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(useLongToday ? row.longDateText : row.dateText);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionContentDescription);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.high);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highContentDescription);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.low);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowContentDescription);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,16 +189,84 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).date;
     }
 
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
+        final List<ForecastRow> oldRows = mRows;
+        List<ForecastRow> rows = ForecastDisplayLoader.getRows(mContext, newCursor);
+        // Cursors that didn't come from ForecastDisplayLoader, or whose rows are out of date
+        // (say a retained cursor after the units changed), are formatted here
+        mRows = rows != null ? rows : ForecastRow.fromCursor(mContext, newCursor);
+
+        // The loader's diff is against the rows it built last, which are usually the ones shown.
+        // When they aren't, the short forecast is diffed here
+        ForecastDiff diff = rows != null ? ForecastDisplayLoader.getDiff(newCursor) : null;
+        if (diff == null || diff.from != oldRows) {
+            diff = ForecastDiff.compute(oldRows, mRows);
+        }
+        if (diff != null) {
+            diff.dispatchTo(this);
+            // A row moving up to the top changes to the today layout
+            if (mUseTodayLayout && !oldRows.isEmpty() && !mRows.isEmpty() &&
+                    oldRows.get(0).date != mRows.get(0).date) {
+                notifyItemChanged(0);
+            }
+        } else {
+            notifyDataSetChanged();
+        }
+        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Shows rows that didn't come from a cursor, e.g. the last known forecast while the loader
+     * is still querying.  The loader's cursor replaces them, and only the rows that differ are
+     * bound again.
+     */
+    public void showRows(List<ForecastRow> rows) {
+        mCursor = null;
+        mRows = rows;
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * @return the position of the day, or {@link RecyclerView#NO_POSITION} if it isn't shown
+     */
+    public int getPositionForDate(long date) {
+        for (int position = 0; position < mRows.size(); position++) {
+            if (mRows.get(position).date == date) {
+                return position;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Formats the rows again from the cursor already loaded, for when only how they are shown
+     * changed.  Only the rows that now look different are bound again.
+     */
+    public void refreshPresentation() {
+        if (mCursor == null) {
+            // Rows from showRows(), which the loader is about to replace
+            return;
+        }
+        final List<ForecastRow> oldRows = mRows;
+        mRows = ForecastRow.fromCursor(mContext, mCursor);
+        ForecastDiff diff = ForecastDiff.compute(oldRows, mRows);
+        if (diff != null) {
+            diff.dispatchTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
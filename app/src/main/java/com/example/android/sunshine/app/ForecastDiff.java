@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * The item changes that turn one list of {@link ForecastRow}s into another.  Rows are matched
+ * by date, their stable id, and a matched row only counts as changed when what it shows
+ * differs, so a reload that changed nothing dispatches nothing and no row is bound again.
+ *
+ * The forecast is sorted by date, which makes this a single merge of the two lists rather than
+ * a general edit script.
+ */
+final class ForecastDiff {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    // The list this applies to; the adapter only dispatches it onto that very list
+    final List<ForecastRow> from;
+    // Ranges of (type, position, count), in the order they apply
+    private int[] mOps = new int[12];
+    private int mOpCount;
+
+    private ForecastDiff(List<ForecastRow> from) {
+        this.from = from;
+    }
+
+    /**
+     * @return the changes from one list to the other, or null if either isn't sorted by
+     * date, in which case the whole list has to be considered changed
+     */
+    static ForecastDiff compute(List<ForecastRow> from, List<ForecastRow> to) {
+        if (!isSortedByDate(from) || !isSortedByDate(to)) {
+            return null;
+        }
+        ForecastDiff diff = new ForecastDiff(from);
+        int i = 0;
+        int j = 0;
+        // Where the next change goes in the list as changed so far
+        int position = 0;
+        while (i < from.size() && j < to.size()) {
+            ForecastRow oldRow = from.get(i);
+            ForecastRow newRow = to.get(j);
+            if (oldRow.date == newRow.date) {
+                if (!oldRow.hasSameContent(newRow)) {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            } else if (oldRow.date < newRow.date) {
+                diff.add(REMOVE, position);
+                i++;
+            } else {
+                diff.add(INSERT, position);
+                position++;
+                j++;
+            }
+        }
+        for (; i < from.size(); i++) {
+            diff.add(REMOVE, position);
+        }
+        for (; j < to.size(); j++) {
+            diff.add(INSERT, position++);
+        }
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int op = 0; op < mOpCount; op++) {
+            final int position = mOps[op * 3 + 1];
+            final int count = mOps[op * 3 + 2];
+            switch (mOps[op * 3]) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemRangeChanged(position, count);
+                    break;
+            }
+        }
+    }
+
+    private void add(int type, int position) {
+        if (mOpCount > 0) {
+            // Extend the last range when this continues it
+            final int last = (mOpCount - 1) * 3;
+            if (mOps[last] == type) {
+                final int end = mOps[last + 1] + mOps[last + 2];
+                if ((type == REMOVE && position == mOps[last + 1]) ||
+                        (type != REMOVE && position == end)) {
+                    mOps[last + 2]++;
+                    return;
+                }
+            }
+        }
+        if ((mOpCount + 1) * 3 > mOps.length) {
+            int[] ops = new int[mOps.length * 2];
+            System.arraycopy(mOps, 0, ops, 0, mOps.length);
+            mOps = ops;
+        }
+        mOps[mOpCount * 3] = type;
+        mOps[mOpCount * 3 + 1] = position;
+        mOps[mOpCount * 3 + 2] = 1;
+        mOpCount++;
+    }
+
+    private static boolean isSortedByDate(List<ForecastRow> rows) {
+        for (int i = 1; i < rows.size(); i++) {
+            if (rows.get(i - 1).date >= rows.get(i).date) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
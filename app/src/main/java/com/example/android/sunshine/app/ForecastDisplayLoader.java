@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.EpochDay;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A CursorLoader that also turns the forecast into {@link ForecastRow}s on its background
+ * thread.  The rows come with the cursor, which stays available for everything that isn't
+ * display, and the loader still reloads when the forecast changes.  Each load also works out
+ * how its rows differ from the previous load's, so the adapter only updates what changed.
+ *
+ * The loader doesn't reload when the units or the art pack change, or at midnight, and it
+ * hands its last cursor to a recreated fragment as it is.  Each cursor remembers the settings
+ * and the day its rows were formatted for, so rows that no longer match are built again.
+ */
+public class ForecastDisplayLoader extends CursorLoader {
+
+    private static final class DisplayCursor extends CursorWrapper {
+        final List<ForecastRow> rows;
+        final ForecastDiff diff;
+        final SettingsSnapshot settings;
+        final int day;
+
+        DisplayCursor(Cursor cursor, List<ForecastRow> rows, ForecastDiff diff,
+                      SettingsSnapshot settings, int day) {
+            super(cursor);
+            this.rows = rows;
+            this.diff = diff;
+            this.settings = settings;
+            this.day = day;
+        }
+    }
+
+    // The rows of the last load, only used by loadInBackground, which never runs concurrently
+    private List<ForecastRow> mLastRows = Collections.emptyList();
+
+    public ForecastDisplayLoader(Context context, Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        return cursor != null ? display(cursor) : null;
+    }
+
+    /**
+     * Formats the cursor's rows and wraps them with it; closes the cursor if that fails.
+     */
+    Cursor display(Cursor cursor) {
+        try {
+            // Taken before formatting, so a change made meanwhile makes the rows stale
+            SettingsSnapshot settings = SettingsSnapshot.get(getContext());
+            int day = EpochDay.today();
+            List<ForecastRow> rows = ForecastRow.fromCursor(getContext(), cursor);
+            ForecastDiff diff = ForecastDiff.compute(mLastRows, rows);
+            mLastRows = rows;
+            return new DisplayCursor(cursor, rows, diff, settings, day);
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the rows built with a cursor this loader delivered, or null for any other cursor
+     * and when the rows were formatted with other settings or on another day
+     */
+    public static List<ForecastRow> getRows(Context context, Cursor cursor) {
+        if (!(cursor instanceof DisplayCursor)) {
+            return null;
+        }
+        DisplayCursor display = (DisplayCursor) cursor;
+        if (display.day != EpochDay.today() || PresentationChanges.changesPresentation(
+                display.settings, SettingsSnapshot.get(context))) {
+            return null;
+        }
+        return display.rows;
+    }
+
+    /**
+     * @return how the rows of a cursor this loader delivered differ from the ones it built
+     * before, or null if not known
+     */
+    static ForecastDiff getDiff(Cursor cursor) {
+        return cursor instanceof DisplayCursor ? ((DisplayCursor) cursor).diff : null;
+    }
+}
@@ -24,11 +24,11 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -45,13 +45,17 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.ForecastFile;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.List;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
+        SharedPreferences.OnSharedPreferenceChangeListener, PresentationChanges.Listener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -59,13 +63,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Until the loader's cursor replaces it
+    private boolean mShowingLastKnownForecast;
+    // For timing the first frame with the forecast in it; 0 once it's drawn
+    private long mViewCreatedAt;
 
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -170,6 +178,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                              Bundle savedInstanceState) {
 
 
+        mViewCreatedAt = SystemClock.elapsedRealtime();
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
 
         // Get a reference to the RecyclerView, and attach this adapter to it.
@@ -247,10 +256,23 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
+        PresentationChanges.addListener(this);
 
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        PresentationChanges.removeListener(this);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onPresentationChanged(SettingsSnapshot settings) {
+        // Same weather, shown differently, so the loaded rows are formatted again
+        mForecastAdapter.refreshPresentation();
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         // We hold for transition here just in-case the activity
@@ -259,6 +281,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        // A loader kept across a configuration change delivers its cursor right away
+        if (getLoaderManager().getLoader(FORECAST_LOADER) == null) {
+            showLastKnownForecast();
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -316,7 +342,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        return new ForecastDisplayLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
@@ -326,53 +352,73 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // Replaces the last known forecast, if it's shown, binding only the days that changed
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
-        } else {
-            mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
-                @Override
-                public boolean onPreDraw() {
-                    // Since we know we're going to get items, we keep the listener around until
-                    // we see Children.
-                    if (mRecyclerView.getChildCount() > 0) {
-                        mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
-                        int position = mForecastAdapter.getSelectedItemPosition();
-                        if (position == RecyclerView.NO_POSITION &&
-                                -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
-                        }
-                        if (position == RecyclerView.NO_POSITION) position = 0;
-                        // If we don't need to restart the loader, and there's a desired position to restore
-                        // to, do so now.
-                        mRecyclerView.smoothScrollToPosition(position);
-                        RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
-                        if (null != vh && mAutoSelectView) {
-                            mForecastAdapter.selectView(vh);
-                        }
-                        if ( mHoldForTransition ) {
-                            getActivity().supportStartPostponedEnterTransition();
-                        }
-                        return true;
-                    }
-                    return false;
-                }
-            });
+        } else if (!mShowingLastKnownForecast) {
+            // The last known forecast already scrolled to the selection and started the
+            // transition, and its days are the loader's
+            scrollToSelectionWhenLaidOut("loader");
         }
-
+        mShowingLastKnownForecast = false;
     }
 
+    /**
+     * Shows the forecast last written by the sync, so the first frame has the forecast in it
+     * rather than waiting for the loader's query.
+     */
+    private void showLastKnownForecast() {
+        ForecastFile file = ForecastFile.read(getActivity(),
+                Utility.getPreferredLocation(getActivity()));
+        if (file == null) {
+            return;
+        }
+        List<ForecastRow> rows = ForecastRow.fromFile(getActivity(), file);
+        if (rows.isEmpty()) {
+            return;
+        }
+        mForecastAdapter.showRows(rows);
+        mShowingLastKnownForecast = true;
+        scrollToSelectionWhenLaidOut("last known forecast");
+    }
 
+    private void scrollToSelectionWhenLaidOut(final String source) {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                // Since we know we're going to get items, we keep the listener around until
+                // we see Children.
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    if (mViewCreatedAt != 0) {
+                        Log.d(LOG_TAG, "First forecast frame from the " + source + " after " +
+                                (SystemClock.elapsedRealtime() - mViewCreatedAt) + " ms");
+                        mViewCreatedAt = 0;
+                    }
+                    int position = mForecastAdapter.getSelectedItemPosition();
+                    if (position == RecyclerView.NO_POSITION &&
+                            -1 != mInitialSelectedDate) {
+                        position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
+                    }
+                    if (position == RecyclerView.NO_POSITION) position = 0;
+                    // If we don't need to restart the loader, and there's a desired position to restore
+                    // to, do so now.
+                    mRecyclerView.smoothScrollToPosition(position);
+                    RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
+                    if (null != vh && mAutoSelectView) {
+                        mForecastAdapter.selectView(vh);
+                    }
+                    if ( mHoldForTransition ) {
+                        getActivity().supportStartPostponedEnterTransition();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
 
     @Override
     public void onDestroy() {
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.ForecastFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One day of the forecast list, with everything {@link ForecastAdapter} shows already
+ * formatted: strings, resource ids and content descriptions.  Built off the main thread by
+ * {@link ForecastDisplayLoader}, so binding a row only sets fields on views.
+ */
+public final class ForecastRow {
+
+    public final long date;
+    public final int weatherId;
+    // The large art for the today layout, and the small icon for the other days
+    public final int artResourceId;
+    public final int iconResourceId;
+    // Null when using the app's own graphics
+    public final String artUrl;
+    public final String transitionName;
+    public final String dateText;
+    // The date for the today layout, e.g. "Today, June 24" rather than "Today"
+    public final String longDateText;
+    public final String description;
+    public final String descriptionContentDescription;
+    public final String high;
+    public final String highContentDescription;
+    public final String low;
+    public final String lowContentDescription;
+    // Of what the row shows, to compare rows quickly
+    private final int mContentHash;
+
+    private ForecastRow(Context context, long date, int weatherId, double maxTemp, double minTemp,
+                        boolean metric, boolean localGraphics) {
+        this.date = date;
+        this.weatherId = weatherId;
+        artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  It follows the day rather
+        // than the position, so it stays unique when rows move without being bound again
+        transitionName = "iconView" + date;
+
+        dateText = Utility.getFriendlyDayString(context, date, false);
+        longDateText = Utility.getFriendlyDayString(context, date, true);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionContentDescription = context.getString(R.string.a11y_forecast, description);
+
+        high = Utility.formatTemperature(context, maxTemp, metric);
+        highContentDescription = context.getString(R.string.a11y_high_temp, high);
+        low = Utility.formatTemperature(context, minTemp, metric);
+        lowContentDescription = context.getString(R.string.a11y_low_temp, low);
+
+        // The content descriptions follow from the texts
+        int hash = weatherId;
+        hash = 31 * hash + (artUrl != null ? artUrl.hashCode() : 0);
+        hash = 31 * hash + dateText.hashCode();
+        hash = 31 * hash + longDateText.hashCode();
+        hash = 31 * hash + description.hashCode();
+        hash = 31 * hash + high.hashCode();
+        hash = 31 * hash + low.hashCode();
+        mContentHash = hash;
+    }
+
+    /**
+     * Whether the two rows show the same, whatever day they are.
+     */
+    public boolean hasSameContent(ForecastRow other) {
+        return mContentHash == other.mContentHash &&
+                weatherId == other.weatherId &&
+                TextUtils.equals(artUrl, other.artUrl) &&
+                dateText.equals(other.dateText) &&
+                longDateText.equals(other.longDateText) &&
+                description.equals(other.description) &&
+                high.equals(other.high) &&
+                low.equals(other.low);
+    }
+
+    /**
+     * Builds the rows of a cursor over {@link ForecastFragment}'s columns.  Reads the
+     * preferences once for the whole list.  The cursor is left before its first row.
+     */
+    public static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        final boolean metric = Utility.isMetric(context);
+        final boolean localGraphics = Utility.usingLocalGraphics(context);
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new ForecastRow(context,
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                    cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    metric, localGraphics));
+        }
+        cursor.moveToPosition(-1);
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Builds the rows of the forecast file from today on, the same as {@link #fromCursor} would
+     * for the provider's forecast when the file is current.
+     */
+    public static List<ForecastRow> fromFile(Context context, ForecastFile file) {
+        final boolean metric = Utility.isMetric(context);
+        final boolean localGraphics = Utility.usingLocalGraphics(context);
+        final int first = file.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(file.getCount() - first);
+        for (int day = first; day < file.getCount(); day++) {
+            rows.add(new ForecastRow(context, file.getDate(day), file.getWeatherId(day),
+                    file.getHigh(day), file.getLow(day), metric, localGraphics));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
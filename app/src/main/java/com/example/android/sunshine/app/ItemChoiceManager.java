@@ -44,6 +44,17 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        // Rows coming and going move the checked ones, which are followed by id
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onChanged();
+        }
     };
 
     private ItemChoiceManager() {
@@ -53,6 +64,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -162,7 +174,8 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < oldItemCount ?
+                    mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
             if (id != lastPosId) {
                 // Look around to see if the ID is nearby. If not, uncheck it.
                 final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
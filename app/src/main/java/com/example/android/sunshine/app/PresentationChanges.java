@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.sync.WearUpdateService;
+
+import java.util.ArrayList;
+
+/**
+ * Tells everything showing the forecast that the way it is shown changed, when the units or
+ * the art pack do.  The data didn't change, so rather than having every loader query the
+ * provider again, each screen formats the rows it already holds: the list and the detail view
+ * through listeners, the widgets through {@link #ACTION_PRESENTATION_CHANGED}, and the watch
+ * face from the forecast file.
+ *
+ * Listeners are added, removed and called on the main thread.
+ */
+public final class PresentationChanges {
+
+    public static final String ACTION_PRESENTATION_CHANGED =
+            "com.example.android.sunshine.app.ACTION_PRESENTATION_CHANGED";
+
+    public interface Listener {
+        void onPresentationChanged(SettingsSnapshot settings);
+    }
+
+    private static final ArrayList<Listener> sListeners = new ArrayList<Listener>();
+
+    private PresentationChanges() {
+    }
+
+    public static void addListener(Listener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Whether going from one snapshot to the other changes how the forecast is shown, but not
+     * which forecast it is.
+     */
+    static boolean changesPresentation(SettingsSnapshot from, SettingsSnapshot to) {
+        return from.metric != to.metric || !from.artPack.equals(to.artPack);
+    }
+
+    static void dispatch(Context context, SettingsSnapshot settings) {
+        notifyListeners(settings);
+        // Setting the package ensures that only components in our app will receive the broadcast
+        context.sendBroadcast(new Intent(ACTION_PRESENTATION_CHANGED)
+                .setPackage(context.getPackageName()));
+        context.startService(new Intent(context, WearUpdateService.class));
+    }
+
+    static void notifyListeners(SettingsSnapshot settings) {
+        // Copied, so a listener can remove itself
+        for (Listener listener : new ArrayList<Listener>(sListeners)) {
+            listener.onPresentationChanged(settings);
+        }
+    }
+}
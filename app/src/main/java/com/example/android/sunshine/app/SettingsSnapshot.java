@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Locale;
+
+/**
+ * The user's settings, as of the last change.  The preferences are read once into an
+ * immutable snapshot and read again only when one of these settings changes, so the helpers
+ * in {@link Utility} called for every list row, widget row and notification are a field read.
+ */
+public final class SettingsSnapshot {
+
+    public final String location;
+    public final boolean metric;
+    // The art pack's url format, with a %s for the art's name
+    public final String artPack;
+    public final boolean localGraphics;
+    // The art pack's url for each WeatherConditions kind
+    private final String[] mArtUrls;
+
+    private static volatile SettingsSnapshot sCurrent;
+    // SharedPreferences only keeps a weak reference to its listeners, so this holds the one
+    private static Listener sListener;
+
+    private SettingsSnapshot(String location, boolean metric, String artPack,
+                             boolean localGraphics) {
+        this.location = location;
+        this.metric = metric;
+        this.artPack = artPack;
+        this.localGraphics = localGraphics;
+        mArtUrls = new String[WeatherConditions.KIND_COUNT];
+        for (int kind = 0; kind < WeatherConditions.KIND_COUNT; kind++) {
+            String name = WeatherConditions.getArtName(kind);
+            if (name != null) {
+                mArtUrls[kind] = String.format(Locale.US, artPack, name);
+            }
+        }
+    }
+
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        return current != null ? current : initialize(context);
+    }
+
+    /**
+     * @param kind a {@link WeatherConditions} kind
+     * @return the art pack's url for the kind, or null if it has no art
+     */
+    public String getArtUrl(int kind) {
+        return mArtUrls[kind];
+    }
+
+    /**
+     * Reads the settings again now.  Changes are picked up on their own, but a change made off
+     * the main thread is only seen once the main thread has delivered it; a caller that needs
+     * its own change right away calls this after writing it.
+     */
+    public static SettingsSnapshot refresh(Context context) {
+        initialize(context);
+        synchronized (SettingsSnapshot.class) {
+            sCurrent = sListener.load();
+            return sCurrent;
+        }
+    }
+
+    private static synchronized SettingsSnapshot initialize(Context context) {
+        if (sCurrent == null) {
+            sListener = new Listener(context.getApplicationContext());
+            sListener.mPrefs.registerOnSharedPreferenceChangeListener(sListener);
+            sCurrent = sListener.load();
+            sListener.mPresented = sCurrent;
+        }
+        return sCurrent;
+    }
+
+    private static final class Listener implements SharedPreferences.OnSharedPreferenceChangeListener {
+        private final Context mContext;
+        final SharedPreferences mPrefs;
+        // What the screens were last told to show; only used on the main thread
+        SettingsSnapshot mPresented;
+        // Resolved once, so loading a snapshot doesn't go to the resources
+        private final String mLocationKey;
+        private final String mLocationDefault;
+        private final String mUnitsKey;
+        private final String mUnitsMetric;
+        private final String mArtPackKey;
+        private final String mArtPackSunshine;
+
+        Listener(Context context) {
+            mContext = context;
+            mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+            mLocationKey = context.getString(R.string.pref_location_key);
+            mLocationDefault = context.getString(R.string.pref_location_default);
+            mUnitsKey = context.getString(R.string.pref_units_key);
+            mUnitsMetric = context.getString(R.string.pref_units_metric);
+            mArtPackKey = context.getString(R.string.pref_art_pack_key);
+            mArtPackSunshine = context.getString(R.string.pref_art_pack_sunshine);
+        }
+
+        SettingsSnapshot load() {
+            final String artPack = mPrefs.getString(mArtPackKey, mArtPackSunshine);
+            return new SettingsSnapshot(
+                    mPrefs.getString(mLocationKey, mLocationDefault),
+                    mPrefs.getString(mUnitsKey, mUnitsMetric).equals(mUnitsMetric),
+                    artPack,
+                    artPack.equals(mArtPackSunshine));
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            // The location status and the other bookkeeping preferences change on every sync
+            if (key == null || key.equals(mLocationKey) || key.equals(mUnitsKey) ||
+                    key.equals(mArtPackKey)) {
+                SettingsSnapshot settings;
+                synchronized (SettingsSnapshot.class) {
+                    settings = load();
+                    sCurrent = settings;
+                }
+                // Compared with what was presented rather than the previous snapshot, which a
+                // refresh may already have replaced
+                if (PresentationChanges.changesPresentation(mPresented, settings)) {
+                    mPresented = settings;
+                    PresentationChanges.dispatch(mContext, settings);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CitySearchEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Locale;
+
+/**
+ * The FTS4 index behind {@link CitySearchEntry}.
+ *
+ * It holds the cities of the location table, kept in step by triggers, and the cities of an
+ * optional gazetteer asset.  Location rows are indexed under the negated location id and
+ * gazetteer rows under positive ids, so the triggers can find their own rows.  The index keeps
+ * extra terms for two and three letter prefixes, which are what a type-ahead mostly asks for.
+ */
+final class CitySearch {
+
+    private static final String LOG_TAG = CitySearch.class.getSimpleName();
+
+    // Tab separated lines of city name, location setting and an optional weight.  Lines
+    // starting with # are comments.  The app works without it.
+    static final String GAZETTEER_ASSET = "cities.tsv";
+
+    private static final String TRIGGER_INSERT = "city_search_location_insert";
+    private static final String TRIGGER_DELETE = "city_search_location_delete";
+    private static final String TRIGGER_UPDATE = "city_search_location_update";
+
+    private CitySearch() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + CitySearchEntry.TABLE_NAME + " USING fts4(" +
+                CitySearchEntry.COLUMN_CITY_NAME + ", " +
+                CitySearchEntry.COLUMN_LOCATION_SETTING + ", " +
+                CitySearchEntry.COLUMN_STORED + ", " +
+                CitySearchEntry.COLUMN_WEIGHT + ", " +
+                "notindexed=" + CitySearchEntry.COLUMN_STORED + ", " +
+                "notindexed=" + CitySearchEntry.COLUMN_WEIGHT + ", " +
+                "prefix=\"2,3\");");
+
+        final String insertLocation = "INSERT INTO " + CitySearchEntry.TABLE_NAME + " (docid, " +
+                CitySearchEntry.COLUMN_CITY_NAME + ", " +
+                CitySearchEntry.COLUMN_LOCATION_SETTING + ", " +
+                CitySearchEntry.COLUMN_STORED + ", " +
+                CitySearchEntry.COLUMN_WEIGHT + ") VALUES (-new." + LocationEntry._ID + ", new." +
+                LocationEntry.COLUMN_CITY_NAME + ", new." +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", 1, 0); ";
+        final String deleteLocation = "DELETE FROM " + CitySearchEntry.TABLE_NAME +
+                " WHERE docid = -old." + LocationEntry._ID + "; ";
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_INSERT + " AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + insertLocation + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_DELETE + " AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + deleteLocation + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_UPDATE + " AFTER UPDATE OF " +
+                LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_LOCATION_SETTING +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " +
+                deleteLocation + insertLocation + "END;");
+
+        // Locations that were stored before the index existed
+        db.execSQL("INSERT INTO " + CitySearchEntry.TABLE_NAME + " (docid, " +
+                CitySearchEntry.COLUMN_CITY_NAME + ", " +
+                CitySearchEntry.COLUMN_LOCATION_SETTING + ", " +
+                CitySearchEntry.COLUMN_STORED + ", " +
+                CitySearchEntry.COLUMN_WEIGHT + ") SELECT -" + LocationEntry._ID + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", 1, 0 FROM " +
+                LocationEntry.TABLE_NAME);
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_INSERT);
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_DELETE);
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_UPDATE);
+        db.execSQL("DROP TABLE IF EXISTS " + CitySearchEntry.TABLE_NAME);
+    }
+
+    /**
+     * Adds the cities of a gazetteer to the index.  Call this inside a transaction; a hundred
+     * thousand rows take a few seconds otherwise instead of well under one.
+     *
+     * @return the number of cities added
+     */
+    static int loadGazetteer(SQLiteDatabase db, InputStream in) throws IOException {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " +
+                CitySearchEntry.TABLE_NAME + " (" +
+                CitySearchEntry.COLUMN_CITY_NAME + ", " +
+                CitySearchEntry.COLUMN_LOCATION_SETTING + ", " +
+                CitySearchEntry.COLUMN_STORED + ", " +
+                CitySearchEntry.COLUMN_WEIGHT + ") VALUES (?, ?, 0, ?)");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        int count = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 2) {
+                    Log.w(LOG_TAG, "Skipping malformed gazetteer line: " + line);
+                    continue;
+                }
+                long weight = 0;
+                if (fields.length > 2) {
+                    try {
+                        weight = Long.parseLong(fields[2].trim());
+                    } catch (NumberFormatException e) {
+                        Log.w(LOG_TAG, "Bad weight in gazetteer line: " + line);
+                    }
+                }
+                insert.bindString(1, fields[0].trim());
+                insert.bindString(2, fields[1].trim());
+                insert.bindLong(3, weight);
+                insert.executeInsert();
+                count++;
+            }
+        } finally {
+            insert.close();
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Turns typed text into an FTS prefix query: every word must start a word of the city
+     * name or location setting.  Operators and quotes can't be typed in, since only letters
+     * and digits are kept, and they are lower cased so "and" or "or" are plain words.
+     *
+     * @return the MATCH expression, or null if the text has no words
+     */
+    static String buildMatchQuery(String text) {
+        StringBuilder match = new StringBuilder();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start) {
+                if (match.length() > 0) match.append(' ');
+                match.append(text.substring(start, i).toLowerCase(Locale.US)).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Ranked prefix matches for typed text: cities already stored first, then cities whose
+     * name starts with the text, then by weight, then shorter names.
+     */
+    static Cursor search(SQLiteDatabase db, String[] projection, String text, int limit) {
+        final String match = buildMatchQuery(text);
+        final String prefix = text.trim().toLowerCase(Locale.US);
+
+        StringBuilder columns = new StringBuilder("docid AS " + CitySearchEntry._ID);
+        if (projection == null) {
+            projection = new String[]{CitySearchEntry.COLUMN_CITY_NAME,
+                    CitySearchEntry.COLUMN_LOCATION_SETTING, CitySearchEntry.COLUMN_STORED};
+        }
+        for (String column : projection) {
+            if (!CitySearchEntry._ID.equals(column)) {
+                columns.append(", ").append(column);
+            }
+        }
+
+        if (match == null) {
+            // Nothing to search for; the same columns, no rows
+            return db.rawQuery("SELECT " + columns + " FROM " + CitySearchEntry.TABLE_NAME +
+                    " WHERE 0", null);
+        }
+        return db.rawQuery("SELECT " + columns + " FROM " + CitySearchEntry.TABLE_NAME +
+                " WHERE " + CitySearchEntry.TABLE_NAME + " MATCH ?" +
+                " ORDER BY " + CitySearchEntry.COLUMN_STORED + " DESC, " +
+                "lower(substr(" + CitySearchEntry.COLUMN_CITY_NAME + ", 1, " +
+                prefix.length() + ")) = ? DESC, " +
+                "CAST(" + CitySearchEntry.COLUMN_WEIGHT + " AS INTEGER) DESC, " +
+                "length(" + CitySearchEntry.COLUMN_CITY_NAME + ") ASC" +
+                " LIMIT " + limit, new String[]{match, prefix});
+    }
+}
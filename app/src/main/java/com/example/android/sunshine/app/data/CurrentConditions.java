@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Collection;
+
+/**
+ * Maintains the current conditions table: one row per location with today's forecast and a
+ * digest of the week, so small readers look up a single row instead of querying the join.
+ *
+ * The provider calls into this from the same transaction as the weather write, so the table
+ * never disagrees with the weather table.  Only the locations a write touched are rewritten,
+ * and only an insert of forecasts moves a location's fetched at time.
+ */
+final class CurrentConditions {
+
+    // For rewrites that fetched nothing: an update, a delete or an archive
+    static final long FETCHED_AT_UNCHANGED = -1;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private CurrentConditions() {
+    }
+
+    static String getCreateTableSql() {
+        return "CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+                CurrentEntry.COLUMN_LOC_KEY + " INTEGER PRIMARY KEY, " +
+                CurrentEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                CurrentEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                CurrentEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                CurrentEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                CurrentEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                CurrentEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                CurrentEntry.COLUMN_FETCHED_AT + " INTEGER NOT NULL, " +
+                CurrentEntry.COLUMN_DIGEST + " BLOB NOT NULL, " +
+
+                " FOREIGN KEY (" + CurrentEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+    }
+
+    /**
+     * Rewrites the current row of one location from its forecasts, or removes it if the
+     * location has no forecast from today on or is gone.
+     *
+     * @param fetchedAt when the location's forecasts were fetched, in milliseconds since the
+     *                  epoch, or {@link #FETCHED_AT_UNCHANGED} to keep the time of the last fetch
+     */
+    static void refresh(SQLiteDatabase db, WeatherStorage storage, long locationId, int today,
+                        long fetchedAt) {
+        Cursor location = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            if (location.moveToFirst()) {
+                refresh(db, storage, locationId, location.getString(0), today, fetchedAt);
+            } else {
+                db.delete(CurrentEntry.TABLE_NAME, CurrentEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
+        } finally {
+            location.close();
+        }
+    }
+
+    /**
+     * Rewrites the current rows of the given locations; see
+     * {@link #refresh(SQLiteDatabase, WeatherStorage, long, int, long)}.
+     */
+    static void refresh(SQLiteDatabase db, WeatherStorage storage, Collection<Long> locationIds,
+                        int today, long fetchedAt) {
+        for (long locationId : locationIds) {
+            refresh(db, storage, locationId, today, fetchedAt);
+        }
+    }
+
+    /**
+     * Rewrites the current rows of every location, and drops rows of locations that are gone.
+     * The fetched at times are kept; a location that had no row gets 0.
+     */
+    static void refreshAll(SQLiteDatabase db, WeatherStorage storage, int today) {
+        db.delete(CurrentEntry.TABLE_NAME, CurrentEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")", null);
+
+        Cursor locations = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null, null, null);
+        try {
+            while (locations.moveToNext()) {
+                refresh(db, storage, locations.getLong(0), locations.getString(1), today,
+                        FETCHED_AT_UNCHANGED);
+            }
+        } finally {
+            locations.close();
+        }
+    }
+
+    private static void refresh(SQLiteDatabase db, WeatherStorage storage, long locationId,
+                                String locationSetting, int today, long fetchedAt) {
+        final String locationArg = Long.toString(locationId);
+        Cursor cursor = db.query(storage.getReadTable(), FORECAST_COLUMNS,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{locationArg, Long.toString(EpochDay.toMillis(today))},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC",
+                Integer.toString(ForecastDigest.MAX_DAYS));
+        try {
+            if (!cursor.moveToFirst()) {
+                db.delete(CurrentEntry.TABLE_NAME, CurrentEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{locationArg});
+                return;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(CurrentEntry.COLUMN_LOC_KEY, locationId);
+            values.put(CurrentEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(CurrentEntry.COLUMN_DATE, cursor.getLong(INDEX_DATE));
+            values.put(CurrentEntry.COLUMN_WEATHER_ID, cursor.getInt(INDEX_WEATHER_ID));
+            values.put(CurrentEntry.COLUMN_SHORT_DESC, cursor.getString(INDEX_SHORT_DESC));
+            values.put(CurrentEntry.COLUMN_MAX_TEMP, cursor.getDouble(INDEX_MAX_TEMP));
+            values.put(CurrentEntry.COLUMN_MIN_TEMP, cursor.getDouble(INDEX_MIN_TEMP));
+            if (fetchedAt == FETCHED_AT_UNCHANGED) {
+                fetchedAt = DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT " +
+                        CurrentEntry.COLUMN_FETCHED_AT + " FROM " + CurrentEntry.TABLE_NAME +
+                        " WHERE " + CurrentEntry.COLUMN_LOC_KEY + " = ?), 0)",
+                        new String[]{locationArg});
+            }
+            values.put(CurrentEntry.COLUMN_FETCHED_AT, fetchedAt);
+
+            byte[] digest = new byte[cursor.getCount() * ForecastDigest.BYTES_PER_DAY];
+            int day = 0;
+            do {
+                ForecastDigest.put(digest, day++, cursor.getInt(INDEX_WEATHER_ID),
+                        (float) cursor.getDouble(INDEX_MAX_TEMP),
+                        (float) cursor.getDouble(INDEX_MIN_TEMP));
+            } while (cursor.moveToNext());
+            values.put(CurrentEntry.COLUMN_DIGEST, digest);
+
+            db.insertWithOnConflict(CurrentEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+
+import java.io.File;
+
+/**
+ * Housekeeping for the database file.
+ *
+ * Every sync replaces the forecast rows and deletes the past days, which leaves free pages
+ * scattered through the file.  The database is created with incremental auto vacuum, so
+ * those pages pile up on the free list instead of being moved on every commit, and this gives
+ * them back to the file system in one go.  It also refreshes the statistics the query planner
+ * picks indexes by, and runs a quick integrity check.
+ */
+final class DatabaseMaintenance {
+
+    private static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    // Values of PRAGMA auto_vacuum
+    static final int AUTO_VACUUM_NONE = 0;
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private DatabaseMaintenance() {
+    }
+
+    /**
+     * Runs every step on the database and reports the file's stats from before and after.
+     * Takes the database for a while, so only call it when nothing is waiting on it.
+     */
+    static Bundle run(SQLiteDatabase db, File file) {
+        final long start = SystemClock.elapsedRealtime();
+        Bundle result = new Bundle();
+        result.putLong(MaintenanceEntry.EXTRA_FILE_SIZE_BEFORE, getFileSize(file));
+        result.putLong(MaintenanceEntry.EXTRA_PAGE_COUNT_BEFORE, getPragma(db, "page_count"));
+        result.putLong(MaintenanceEntry.EXTRA_FREE_PAGES_BEFORE, getPragma(db, "freelist_count"));
+
+        if (getPragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            // Each step of the pragma frees a page, and filling the cursor steps it to the end
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } else {
+            // Older databases were created before incremental vacuum was turned on.  Switching
+            // from full auto vacuum is a header change, switching from none needs a rebuild.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            if (getPragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                Log.d(LOG_TAG, "Rebuilding the database for incremental vacuum");
+                db.execSQL("VACUUM");
+            }
+        }
+
+        db.execSQL("ANALYZE");
+
+        StringBuilder check = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA quick_check", null);
+        try {
+            while (cursor.moveToNext()) {
+                if (check.length() > 0) check.append('\n');
+                check.append(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        final boolean passed = "ok".equals(check.toString());
+        if (!passed) {
+            Log.e(LOG_TAG, "Database check failed: " + check);
+        }
+
+        result.putLong(MaintenanceEntry.EXTRA_FILE_SIZE_AFTER, getFileSize(file));
+        result.putLong(MaintenanceEntry.EXTRA_PAGE_COUNT_AFTER, getPragma(db, "page_count"));
+        result.putLong(MaintenanceEntry.EXTRA_FREE_PAGES_AFTER, getPragma(db, "freelist_count"));
+        result.putLong(MaintenanceEntry.EXTRA_PAGE_SIZE, getPragma(db, "page_size"));
+        result.putBoolean(MaintenanceEntry.EXTRA_CHECK_PASSED, passed);
+        result.putString(MaintenanceEntry.EXTRA_CHECK_RESULT, check.toString());
+        result.putLong(MaintenanceEntry.EXTRA_DURATION_MILLIS,
+                SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    static long getPragma(SQLiteDatabase db, String pragma) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + pragma, null);
+    }
+
+    // The database and whatever journal sits next to it
+    private static long getFileSize(File file) {
+        return file.length() + new File(file.getPath() + "-wal").length() +
+                new File(file.getPath() + "-journal").length();
+    }
+}
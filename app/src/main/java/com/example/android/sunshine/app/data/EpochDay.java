@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic on epoch-day integers: the number of days since 1970-01-01 in the local
+ * calendar of the device.
+ *
+ * This replaces the {@link android.text.format.Time} based helpers, which allocate a Time and
+ * look up the timezone on every call.  The default timezone is resolved once and cached until
+ * {@link #onTimeZoneChanged()} is called, so none of these methods allocate.
+ */
+public final class EpochDay {
+
+    public static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    // The cached zone.  Replaced as a whole, so readers never see a half-updated state.
+    private static volatile ZoneState sZoneState;
+
+    private EpochDay() {
+    }
+
+    /**
+     * @param millis an instant, in milliseconds since the epoch
+     * @return the local epoch day that instant falls on
+     */
+    public static int fromMillis(long millis) {
+        return floorDay(millis + zone().offsetAt(millis));
+    }
+
+    /**
+     * @param epochDay a local epoch day
+     * @return the instant of local midnight at the start of that day, in milliseconds
+     */
+    public static long toMillis(int epochDay) {
+        ZoneState zone = zone();
+        long localMidnight = epochDay * DAY_IN_MILLIS;
+        int offset = zone.offsetAt(localMidnight - zone.rawOffset);
+        long millis = localMidnight - offset;
+        int actualOffset = zone.offsetAt(millis);
+        if (actualOffset != offset) {
+            // We crossed a DST transition.  If midnight falls in the gap, the other candidate is
+            // the first instant that is still on the requested day.
+            long candidate = localMidnight - actualOffset;
+            if (floorDay(candidate + zone.offsetAt(candidate)) == epochDay) {
+                millis = candidate;
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * @return the local epoch day for the current time
+     */
+    public static int today() {
+        return fromMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * @param millis an instant, in milliseconds since the epoch
+     * @return local midnight at the start of the day containing that instant
+     */
+    public static long normalize(long millis) {
+        return toMillis(fromMillis(millis));
+    }
+
+    /**
+     * Drops the cached timezone.  Called when the system broadcasts a timezone change.
+     */
+    public static void onTimeZoneChanged() {
+        sZoneState = null;
+    }
+
+    private static int floorDay(long localMillis) {
+        long day = localMillis / DAY_IN_MILLIS;
+        if (localMillis < 0 && day * DAY_IN_MILLIS != localMillis) {
+            day--;
+        }
+        return (int) day;
+    }
+
+    private static ZoneState zone() {
+        ZoneState zone = sZoneState;
+        if (zone == null) {
+            zone = new ZoneState(TimeZone.getDefault());
+            sZoneState = zone;
+        }
+        return zone;
+    }
+
+    private static final class ZoneState {
+        final TimeZone timeZone;
+        final int rawOffset;
+        final boolean fixedOffset;
+
+        ZoneState(TimeZone timeZone) {
+            this.timeZone = timeZone;
+            this.rawOffset = timeZone.getRawOffset();
+            this.fixedOffset = !timeZone.useDaylightTime();
+        }
+
+        int offsetAt(long millis) {
+            return fixedOffset ? rawOffset : timeZone.getOffset(millis);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * Reads and writes the packed forecast stored in
+ * {@link WeatherContract.CurrentEntry#COLUMN_DIGEST}.
+ *
+ * The digest holds the next forecast days in date order, starting with the current row's
+ * date.  Each day takes {@link #BYTES_PER_DAY} bytes: the weather id as a big-endian short,
+ * then the high and the low as big-endian floats.
+ */
+public final class ForecastDigest {
+
+    public static final int MAX_DAYS = 7;
+    static final int BYTES_PER_DAY = 2 + 4 + 4;
+
+    private ForecastDigest() {
+    }
+
+    public static int getDayCount(byte[] digest) {
+        return digest == null ? 0 : digest.length / BYTES_PER_DAY;
+    }
+
+    public static int getWeatherId(byte[] digest, int day) {
+        int offset = day * BYTES_PER_DAY;
+        return ((digest[offset] & 0xff) << 8) | (digest[offset + 1] & 0xff);
+    }
+
+    public static float getHigh(byte[] digest, int day) {
+        return Float.intBitsToFloat(readInt(digest, day * BYTES_PER_DAY + 2));
+    }
+
+    public static float getLow(byte[] digest, int day) {
+        return Float.intBitsToFloat(readInt(digest, day * BYTES_PER_DAY + 6));
+    }
+
+    static void put(byte[] digest, int day, int weatherId, float high, float low) {
+        int offset = day * BYTES_PER_DAY;
+        digest[offset] = (byte) (weatherId >> 8);
+        digest[offset + 1] = (byte) weatherId;
+        writeInt(digest, offset + 2, Float.floatToIntBits(high));
+        writeInt(digest, offset + 6, Float.floatToIntBits(low));
+    }
+
+    private static int readInt(byte[] digest, int offset) {
+        return ((digest[offset] & 0xff) << 24) | ((digest[offset + 1] & 0xff) << 16) |
+                ((digest[offset + 2] & 0xff) << 8) | (digest[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] digest, int offset, int value) {
+        digest[offset] = (byte) (value >> 24);
+        digest[offset + 1] = (byte) (value >> 16);
+        digest[offset + 2] = (byte) (value >> 8);
+        digest[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * A small fixed-layout binary copy of the coming days of one location's forecast.
+ *
+ * The sync writes one file per location after it stores a forecast, and the widgets, Muzei and
+ * the notification map it and read fields at fixed offsets instead of going through the
+ * provider.  A new file is written next to the old one and renamed over it, so readers see
+ * either file whole; the header's version and CRC turn away anything else, like a file cut
+ * short by a crash, in which case readers go back to asking the provider.
+ *
+ * A description that doesn't fit in its field isn't stored cut short: its length is written
+ * as -1, {@link #getShortDesc} returns null, and readers that show it ask the provider.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   header  0  int   magic
+ *           4  short version
+ *           6  short record size
+ *           8  int   record count
+ *          12  long  time written, in milliseconds
+ *          20  int   CRC32 of the header before it and of the records
+ *   record  0  long  date, in milliseconds
+ *           8  int   weather id
+ *          12  float high
+ *          16  float low
+ *          20  short description length in bytes, or -1 if it didn't fit
+ *          22  byte[42] description, UTF-8
+ * </pre>
+ */
+public final class ForecastFile {
+
+    private static final String LOG_TAG = ForecastFile.class.getSimpleName();
+
+    static final int MAGIC = 0x53554e46; // "SUNF"
+    static final short VERSION = 2;
+
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 64;
+    static final int OFFSET_CRC = 20;
+
+    private static final int OFFSET_DATE = 0;
+    private static final int OFFSET_WEATHER_ID = 8;
+    private static final int OFFSET_HIGH = 12;
+    private static final int OFFSET_LOW = 16;
+    private static final int OFFSET_DESC_LENGTH = 20;
+    private static final int OFFSET_DESC = 22;
+    static final int MAX_DESC_BYTES = RECORD_SIZE - OFFSET_DESC;
+    private static final short DESC_NOT_STORED = -1;
+
+    // Two weeks is more than any reader of the file looks ahead
+    static final int MAX_DAYS = 14;
+
+    private static final String DIRECTORY = "forecast";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    private ForecastFile(ByteBuffer buffer, int count) {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+    static File getFile(Context context, String locationSetting) {
+        return new File(new File(context.getFilesDir(), DIRECTORY),
+                Uri.encode(locationSetting) + ".bin");
+    }
+
+    /**
+     * Replaces the file of the snapshot's location with its days from today on, or deletes it
+     * if there are none.  Does file I/O, so don't call it from the main thread.
+     *
+     * @return true if the file now matches the snapshot
+     */
+    public static boolean write(Context context, ForecastSnapshot snapshot) {
+        final File file = getFile(context, snapshot.getLocationSetting());
+        final int first = snapshot.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+        final int count = Math.min(MAX_DAYS, snapshot.getCount() - first);
+        if (count <= 0) {
+            return !file.exists() || file.delete();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE);
+        buffer.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) RECORD_SIZE)
+                .putInt(count)
+                .putLong(System.currentTimeMillis())
+                .putInt(0);
+        for (int i = first; i < first + count; i++) {
+            final int start = buffer.position();
+            final String shortDesc = snapshot.getShortDesc(i);
+            final byte[] desc = shortDesc != null ? shortDesc.getBytes(UTF_8) : new byte[0];
+            final boolean fits = desc.length <= MAX_DESC_BYTES;
+            buffer.putLong(snapshot.getDate(i))
+                    .putInt(snapshot.getWeatherId(i))
+                    .putFloat(snapshot.getHigh(i))
+                    .putFloat(snapshot.getLow(i))
+                    .putShort(fits ? (short) desc.length : DESC_NOT_STORED);
+            if (fits) {
+                buffer.put(desc);
+            }
+            buffer.position(start + RECORD_SIZE);
+        }
+        final byte[] bytes = buffer.array();
+        buffer.putInt(OFFSET_CRC, checksum(bytes));
+
+        // AtomicFile moves the old file aside and writes the new one in its place, which a
+        // reader mapping it could catch half written; a rename swaps the whole file at once
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return false;
+        }
+        final File temp = new File(directory, file.getName() + ".new");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(bytes);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (temp.renameTo(file)) {
+                return true;
+            }
+            Log.e(LOG_TAG, "Couldn't rename " + temp + " to " + file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + temp, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + temp, e);
+                }
+            }
+        }
+        temp.delete();
+        return false;
+    }
+
+    /**
+     * Maps the file of a location.
+     *
+     * @return the file, or null if there is none or it doesn't check out
+     */
+    public static ForecastFile read(Context context, String locationSetting) {
+        final File file = getFile(context, locationSetting);
+        final ByteBuffer buffer;
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            final long size = in.length();
+            if (size < HEADER_SIZE || size > HEADER_SIZE + MAX_DAYS * RECORD_SIZE) {
+                return null;
+            }
+            // The mapping stays valid once the file is closed
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            // Most likely there's no file yet
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + file, e);
+                }
+            }
+        }
+        return validate(buffer);
+    }
+
+    static ForecastFile validate(ByteBuffer buffer) {
+        final int size = buffer.limit();
+        if (size < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getShort(4) != VERSION
+                || buffer.getShort(6) != RECORD_SIZE) {
+            return null;
+        }
+        final int count = buffer.getInt(8);
+        if (count < 0 || count > MAX_DAYS || size != HEADER_SIZE + count * RECORD_SIZE) {
+            return null;
+        }
+        final byte[] bytes = new byte[size];
+        buffer.duplicate().get(bytes);
+        if (checksum(bytes) != buffer.getInt(OFFSET_CRC)) {
+            return null;
+        }
+        return new ForecastFile(buffer, count);
+    }
+
+    // CRC32 of everything but the CRC itself
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, OFFSET_CRC);
+        crc.update(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The first forecast from today on for a location, in the same Bundle as
+     * {@link WeatherEntry#METHOD_GET_TODAY_SUMMARY} returns; a later day's when today's is
+     * missing, so callers that need today check its date.  Read from the file when it has one
+     * with its description, and from the provider otherwise.
+     *
+     * @return the summary, or null if there is no forecast from today on
+     */
+    public static Bundle getTodaySummary(Context context, String locationSetting) {
+        ForecastFile file = read(context, locationSetting);
+        if (file != null) {
+            final int today = file.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+            final String desc = today < file.getCount() ? file.getShortDesc(today) : null;
+            if (desc != null) {
+                Bundle summary = new Bundle();
+                summary.putLong(WeatherEntry.COLUMN_DATE, file.getDate(today));
+                summary.putInt(WeatherEntry.COLUMN_WEATHER_ID, file.getWeatherId(today));
+                summary.putString(WeatherEntry.COLUMN_SHORT_DESC, desc);
+                summary.putDouble(WeatherEntry.COLUMN_MAX_TEMP, file.getHigh(today));
+                summary.putDouble(WeatherEntry.COLUMN_MIN_TEMP, file.getLow(today));
+                return summary;
+            }
+        }
+        return context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherEntry.METHOD_GET_TODAY_SUMMARY, locationSetting, null);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getWrittenAt() {
+        return mBuffer.getLong(12);
+    }
+
+    public long getDate(int position) {
+        return mBuffer.getLong(offset(position) + OFFSET_DATE);
+    }
+
+    public int getWeatherId(int position) {
+        return mBuffer.getInt(offset(position) + OFFSET_WEATHER_ID);
+    }
+
+    public float getHigh(int position) {
+        return mBuffer.getFloat(offset(position) + OFFSET_HIGH);
+    }
+
+    public float getLow(int position) {
+        return mBuffer.getFloat(offset(position) + OFFSET_LOW);
+    }
+
+    /**
+     * @return the description, or null if it was too long to be stored in the file
+     */
+    public String getShortDesc(int position) {
+        final int offset = offset(position);
+        final int length = mBuffer.getShort(offset + OFFSET_DESC_LENGTH);
+        if (length < 0 || length > MAX_DESC_BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mBuffer.get(offset + OFFSET_DESC + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return the position of the first day on or after date, or {@link #getCount()} if all
+     * days are before it
+     */
+    public int indexOfFirstDayFrom(long date) {
+        int position = 0;
+        while (position < mCount && getDate(position) < date) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int offset(int position) {
+        return HEADER_SIZE + position * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An immutable copy of the stored forecast of one location, in date order.
+ *
+ * The provider rebuilds the snapshots of the locations it writes once the write has committed,
+ * and publishes them by swapping a volatile map, so readers in the app's process get the
+ * current forecast with no SQL and no locking.  SQLite stays the store; a snapshot is only
+ * what it held at the last write, and there is none until something asks for it or writes.
+ */
+public final class ForecastSnapshot {
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    // these indices must match the projection
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+    private static final int INDEX_LOCATION_ID = 10;
+    private static final int INDEX_LOCATION_SETTING = 11;
+
+    private static final Object sPublishLock = new Object();
+    // Never modified once published; writers publish a modified copy
+    private static volatile Map<String, ForecastSnapshot> sSnapshots =
+            Collections.emptyMap();
+
+    private final long mLocationId;
+    private final String mLocationSetting;
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mShortDescs;
+    private final float[] mHighs;
+    private final float[] mLows;
+    private final float[] mHumidities;
+    private final float[] mPressures;
+    private final float[] mWindSpeeds;
+    private final float[] mDegrees;
+
+    private ForecastSnapshot(long locationId, String locationSetting, int count) {
+        mLocationId = locationId;
+        mLocationSetting = locationSetting;
+        mIds = new long[count];
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mShortDescs = new String[count];
+        mHighs = new float[count];
+        mLows = new float[count];
+        mHumidities = new float[count];
+        mPressures = new float[count];
+        mWindSpeeds = new float[count];
+        mDegrees = new float[count];
+    }
+
+    /**
+     * @return the last published snapshot of the location, or null if there is none
+     */
+    public static ForecastSnapshot get(String locationSetting) {
+        return sSnapshots.get(locationSetting);
+    }
+
+    /**
+     * Like {@link #get}, but has the provider build the snapshot if none was published yet.
+     * This can hit the database, so don't call it from the main thread.
+     *
+     * @return the snapshot, or null if the location has no forecast
+     */
+    public static ForecastSnapshot load(ContentResolver resolver, String locationSetting) {
+        ForecastSnapshot snapshot = get(locationSetting);
+        if (snapshot == null) {
+            resolver.call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherEntry.METHOD_PUBLISH_SNAPSHOT, locationSetting, null);
+            snapshot = get(locationSetting);
+        }
+        return snapshot;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public int getCount() {
+        return mDates.length;
+    }
+
+    // The weather row's _id, stable across rebuilds while the row isn't replaced
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    public int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    public String getShortDesc(int position) {
+        return mShortDescs[position];
+    }
+
+    public float getHigh(int position) {
+        return mHighs[position];
+    }
+
+    public float getLow(int position) {
+        return mLows[position];
+    }
+
+    public float getHumidity(int position) {
+        return mHumidities[position];
+    }
+
+    public float getPressure(int position) {
+        return mPressures[position];
+    }
+
+    public float getWindSpeed(int position) {
+        return mWindSpeeds[position];
+    }
+
+    public float getDegrees(int position) {
+        return mDegrees[position];
+    }
+
+    /**
+     * @return the position of the first day on or after date, or {@link #getCount()} if all
+     * days are before it
+     */
+    public int indexOfFirstDayFrom(long date) {
+        int index = Arrays.binarySearch(mDates, date);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Rebuilds and publishes the snapshots of some locations, or of all of them if
+     * locationIds is null.  Call it after the write that changed them has committed.
+     */
+    static void publish(SQLiteDatabase db, SQLiteQueryBuilder builder,
+                        Collection<Long> locationIds) {
+        String selection = null;
+        if (locationIds != null) {
+            if (locationIds.isEmpty()) {
+                return;
+            }
+            StringBuilder ids = new StringBuilder();
+            for (long id : locationIds) {
+                if (ids.length() > 0) ids.append(',');
+                ids.append(id);
+            }
+            selection = LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " IN (" + ids + ")";
+        }
+
+        // Read and swap under the lock, so the last snapshot published is the last one read
+        // and a slow rebuild can't replace a newer one
+        synchronized (sPublishLock) {
+            HashMap<String, ForecastSnapshot> loaded = load(db, builder, selection, null);
+            HashMap<String, ForecastSnapshot> snapshots;
+            if (locationIds == null) {
+                snapshots = loaded;
+            } else {
+                snapshots = new HashMap<String, ForecastSnapshot>(sSnapshots);
+                Iterator<ForecastSnapshot> it = snapshots.values().iterator();
+                while (it.hasNext()) {
+                    if (locationIds.contains(it.next().mLocationId)) {
+                        it.remove();
+                    }
+                }
+                snapshots.putAll(loaded);
+            }
+            sSnapshots = Collections.unmodifiableMap(snapshots);
+        }
+    }
+
+    /**
+     * Builds and publishes the snapshot of one location, if it has none yet.
+     */
+    static void publish(SQLiteDatabase db, SQLiteQueryBuilder builder, String locationSetting) {
+        synchronized (sPublishLock) {
+            if (sSnapshots.containsKey(locationSetting)) {
+                return;
+            }
+            HashMap<String, ForecastSnapshot> loaded = load(db, builder,
+                    LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting});
+            if (loaded.isEmpty()) {
+                return;
+            }
+            HashMap<String, ForecastSnapshot> snapshots =
+                    new HashMap<String, ForecastSnapshot>(sSnapshots);
+            snapshots.putAll(loaded);
+            sSnapshots = Collections.unmodifiableMap(snapshots);
+        }
+    }
+
+    private static HashMap<String, ForecastSnapshot> load(SQLiteDatabase db,
+            SQLiteQueryBuilder builder, String selection, String[] selectionArgs) {
+        HashMap<String, ForecastSnapshot> snapshots = new HashMap<String, ForecastSnapshot>();
+        Cursor cursor = builder.query(db, COLUMNS, selection, selectionArgs, null, null,
+                LocationEntry.TABLE_NAME + "." + LocationEntry._ID + ", " +
+                        WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            int start = 0;
+            while (start < cursor.getCount()) {
+                cursor.moveToPosition(start);
+                final long locationId = cursor.getLong(INDEX_LOCATION_ID);
+                int end = start + 1;
+                while (cursor.moveToPosition(end) &&
+                        cursor.getLong(INDEX_LOCATION_ID) == locationId) {
+                    end++;
+                }
+
+                cursor.moveToPosition(start);
+                ForecastSnapshot snapshot = new ForecastSnapshot(locationId,
+                        cursor.getString(INDEX_LOCATION_SETTING), end - start);
+                for (int i = 0; i < end - start; i++) {
+                    cursor.moveToPosition(start + i);
+                    snapshot.mIds[i] = cursor.getLong(INDEX_ID);
+                    snapshot.mDates[i] = cursor.getLong(INDEX_DATE);
+                    snapshot.mWeatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                    snapshot.mShortDescs[i] = cursor.getString(INDEX_SHORT_DESC);
+                    snapshot.mHighs[i] = cursor.getFloat(INDEX_MAX_TEMP);
+                    snapshot.mLows[i] = cursor.getFloat(INDEX_MIN_TEMP);
+                    snapshot.mHumidities[i] = cursor.getFloat(INDEX_HUMIDITY);
+                    snapshot.mPressures[i] = cursor.getFloat(INDEX_PRESSURE);
+                    snapshot.mWindSpeeds[i] = cursor.getFloat(INDEX_WIND_SPEED);
+                    snapshot.mDegrees[i] = cursor.getFloat(INDEX_DEGREES);
+                }
+                snapshots.put(snapshot.mLocationSetting, snapshot);
+                start = end;
+            }
+        } finally {
+            cursor.close();
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A grid index over the coordinates of the location table.
+ *
+ * Every location is filed under the cell of its coordinates in a table indexed by (lat_cell,
+ * lon_cell), kept in step by triggers, so a bounding box query only reads the rows of the
+ * cells it overlaps.  The platform's SQLite isn't built with the R*Tree module, which is why
+ * this isn't one.  Nearest queries search boxes of doubling size around the point until the
+ * closest locations are known to be inside the box.
+ */
+final class LocationGrid {
+
+    static final String TABLE_NAME = "location_grid";
+
+    // Half a degree is about 55km of latitude, a bit more than a metropolitan area
+    static final double CELL_DEGREES = 0.5;
+
+    private static final String COLUMN_LOC_KEY = "location_id";
+    private static final String COLUMN_LAT_CELL = "lat_cell";
+    private static final String COLUMN_LON_CELL = "lon_cell";
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private static final String TRIGGER_INSERT = "location_grid_insert";
+    private static final String TRIGGER_DELETE = "location_grid_delete";
+    private static final String TRIGGER_UPDATE = "location_grid_update";
+
+    private static final String GRID_JOIN = LocationEntry.TABLE_NAME + " INNER JOIN " +
+            TABLE_NAME + " ON " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " = " +
+            TABLE_NAME + "." + COLUMN_LOC_KEY;
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    private static final int INDEX_COORD_LAT = 3;
+    private static final int INDEX_COORD_LONG = 4;
+
+    private static final String[] NEAREST_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_DISTANCE
+    };
+
+    private LocationGrid() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (" +
+                COLUMN_LOC_KEY + " INTEGER PRIMARY KEY, " +
+                COLUMN_LAT_CELL + " INTEGER NOT NULL, " +
+                COLUMN_LON_CELL + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + TABLE_NAME + "_cell ON " + TABLE_NAME + " (" +
+                COLUMN_LAT_CELL + ", " + COLUMN_LON_CELL + ");");
+
+        final String insertCell = "INSERT OR REPLACE INTO " + TABLE_NAME + " VALUES (new." +
+                LocationEntry._ID + ", " + cellSql("new." + LocationEntry.COLUMN_COORD_LAT, 90) +
+                ", " + cellSql("new." + LocationEntry.COLUMN_COORD_LONG, 180) + "); ";
+        db.execSQL("CREATE TRIGGER " + TRIGGER_INSERT + " AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + insertCell + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_UPDATE + " AFTER UPDATE OF " +
+                LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " + insertCell + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_DELETE + " AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " +
+                COLUMN_LOC_KEY + " = old." + LocationEntry._ID + "; END;");
+
+        // Locations that were stored before the index existed
+        db.execSQL("INSERT INTO " + TABLE_NAME + " SELECT " + LocationEntry._ID + ", " +
+                cellSql(LocationEntry.COLUMN_COORD_LAT, 90) + ", " +
+                cellSql(LocationEntry.COLUMN_COORD_LONG, 180) + " FROM " +
+                LocationEntry.TABLE_NAME);
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_INSERT);
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_UPDATE);
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_DELETE);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+    }
+
+    // Same as cell(), in SQL.  The shifted coordinate is never negative, so the cast floors.
+    private static String cellSql(String coordinate, int offset) {
+        return "CAST((" + coordinate + " + " + offset + ") / " + CELL_DEGREES + " AS INTEGER)";
+    }
+
+    static int cell(double coordinate, int offset) {
+        return (int) Math.floor((coordinate + offset) / CELL_DEGREES);
+    }
+
+    /**
+     * Locations inside a box, which crosses the antimeridian when west is greater than east.
+     */
+    static Cursor within(SQLiteDatabase db, String[] projection, double south, double west,
+                         double north, double east, String sortOrder) {
+        final int southCell = cell(Math.max(south, -90), 90);
+        final int northCell = cell(Math.min(north, 90), 90);
+        final int westCell = cell(west, 180);
+        final int eastCell = cell(east, 180);
+
+        // Cell ranges first, so the index narrows the search down, then the exact box
+        StringBuilder selection = new StringBuilder();
+        selection.append(COLUMN_LAT_CELL).append(" BETWEEN ").append(southCell)
+                .append(" AND ").append(northCell).append(" AND ");
+        if (west <= east) {
+            selection.append(COLUMN_LON_CELL).append(" BETWEEN ").append(westCell)
+                    .append(" AND ").append(eastCell);
+        } else {
+            selection.append('(').append(COLUMN_LON_CELL).append(" >= ").append(westCell)
+                    .append(" OR ").append(COLUMN_LON_CELL).append(" <= ").append(eastCell)
+                    .append(')');
+        }
+        selection.append(" AND ").append(LocationEntry.COLUMN_COORD_LAT).append(" BETWEEN ? AND ?");
+        if (west <= east) {
+            selection.append(" AND ").append(LocationEntry.COLUMN_COORD_LONG)
+                    .append(" BETWEEN ? AND ?");
+        } else {
+            selection.append(" AND (").append(LocationEntry.COLUMN_COORD_LONG).append(" >= ? OR ")
+                    .append(LocationEntry.COLUMN_COORD_LONG).append(" <= ?)");
+        }
+
+        return db.query(GRID_JOIN,
+                projection != null ? projection : LOCATION_COLUMNS,
+                selection.toString(),
+                new String[]{Double.toString(south), Double.toString(north),
+                        Double.toString(west), Double.toString(east)},
+                null,
+                null,
+                sortOrder);
+    }
+
+    /**
+     * The locations closest to a point, closest first, with their distance in kilometers.
+     */
+    static Cursor nearest(SQLiteDatabase db, String[] projection, double lat, double lon,
+                          int limit) {
+        final String[] columns = projection != null ? projection : NEAREST_COLUMNS;
+        final int[] columnIndices = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnIndices[i] = Arrays.asList(NEAREST_COLUMNS).indexOf(columns[i]);
+            if (columnIndices[i] == -1) {
+                throw new IllegalArgumentException("Unknown column " + columns[i]);
+            }
+        }
+        if (limit < 1) {
+            return new MatrixCursor(columns, 0);
+        }
+
+        ArrayList<Object[]> found = new ArrayList<Object[]>();
+
+        for (double radius = CELL_DEGREES; ; radius *= 2) {
+            // The box holds every point within radius degrees of arc of (lat, lon), so once
+            // enough locations are closer than that, no location outside it can be closer
+            final double south = lat - radius;
+            final double north = lat + radius;
+            final double poleward = Math.min(90, Math.max(Math.abs(south), Math.abs(north)));
+            final double cos = Math.cos(Math.toRadians(poleward));
+            final boolean allLongitudes = poleward >= 90 || radius / cos >= 180;
+            final double west = allLongitudes ? -180 : wrap(lon - radius / cos);
+            final double east = allLongitudes ? 180 : wrap(lon + radius / cos);
+
+            found.clear();
+            Cursor cursor = within(db, LOCATION_COLUMNS, south, west, north, east, null);
+            try {
+                while (cursor.moveToNext()) {
+                    Object[] row = new Object[LOCATION_COLUMNS.length + 1];
+                    row[0] = cursor.getLong(0);
+                    row[1] = cursor.getString(1);
+                    row[2] = cursor.getString(2);
+                    row[3] = cursor.getDouble(INDEX_COORD_LAT);
+                    row[4] = cursor.getDouble(INDEX_COORD_LONG);
+                    row[5] = distanceKm(lat, lon, cursor.getDouble(INDEX_COORD_LAT),
+                            cursor.getDouble(INDEX_COORD_LONG));
+                    found.add(row);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            Collections.sort(found, BY_DISTANCE);
+            final boolean wholeWorld = allLongitudes && south <= -90 && north >= 90;
+            if (wholeWorld || (found.size() >= limit &&
+                    (Double) found.get(limit - 1)[5] <= radius * KM_PER_DEGREE)) {
+                break;
+            }
+        }
+
+        MatrixCursor result = new MatrixCursor(columns, Math.min(limit, found.size()));
+        for (int i = 0; i < limit && i < found.size(); i++) {
+            Object[] row = found.get(i);
+            MatrixCursor.RowBuilder builder = result.newRow();
+            for (int index : columnIndices) {
+                builder.add(row[index]);
+            }
+        }
+        return result;
+    }
+
+    private static final Comparator<Object[]> BY_DISTANCE = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] lhs, Object[] rhs) {
+            return Double.compare((Double) lhs[5], (Double) rhs[5]);
+        }
+    };
+
+    private static double wrap(double lon) {
+        if (lon < -180) return lon + 360;
+        if (lon > 180) return lon - 360;
+        return lon;
+    }
+
+    // Haversine distance, which is accurate to well within a kilometer at these distances
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+
+/**
+ * The provider's map from location setting to location row id.
+ *
+ * A location is resolved with a single INSERT OR IGNORE, which creates the row or leaves the
+ * existing one alone, and the id is then kept in memory so later syncs of the same setting
+ * don't touch the database at all.  Like {@link TodaySummaryCache}, an id read while a write
+ * was going on is never stored.
+ */
+final class LocationRegistry {
+
+    // Values for resolve's caller, saying whether the row was created
+    static final int RESOLVED = 0;
+    static final int INSERTED = 1;
+
+    private final HashMap<String, Long> mIds = new HashMap<String, Long>();
+    private long mGeneration;
+
+    /**
+     * @return the cached id of the location setting, or -1 if it isn't cached
+     */
+    synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    synchronized void invalidate() {
+        mGeneration++;
+        mIds.clear();
+    }
+
+    /**
+     * Finds the row of a location setting, without creating it.  Settings with no row aren't
+     * remembered, so one inserted later is found then.
+     *
+     * @return the location's row id, or -1 if there is none
+     */
+    long lookup(SQLiteDatabase db, String locationSetting) {
+        long id = get(locationSetting);
+        if (id != -1) {
+            return id;
+        }
+
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            id = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mIds.put(locationSetting, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Finds the row of the location in values, creating it if there is none yet.  Existing
+     * rows are not updated.
+     *
+     * @param outcome if not null, its first element is set to {@link #INSERTED} or
+     *                {@link #RESOLVED}
+     * @return the location's row id, or -1 if it could neither be found nor inserted
+     */
+    long resolve(SQLiteDatabase db, ContentValues values, int[] outcome) {
+        final String locationSetting = values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        long id = get(locationSetting);
+        if (id != -1) {
+            if (outcome != null) outcome[0] = RESOLVED;
+            return id;
+        }
+
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        // SQLite only has INSERT ... ON CONFLICT DO UPDATE from 3.24, which no supported
+        // platform ships, so insert or ignore and look the row up when it was already there
+        id = db.insertWithOnConflict(LocationEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+        if (id != -1) {
+            if (outcome != null) outcome[0] = INSERTED;
+        } else {
+            if (outcome != null) outcome[0] = RESOLVED;
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                    new String[]{LocationEntry._ID},
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting},
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return -1;
+                }
+                id = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mIds.put(locationSetting, id);
+            }
+        }
+        return id;
+    }
+}
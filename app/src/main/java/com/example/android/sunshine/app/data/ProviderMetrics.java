@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per operation and URI match code counters for the provider.
+ *
+ * Only the query count is always kept; it's a single atomic increment.  Everything else is
+ * recorded when the metrics are enabled, because measuring a query means filling its cursor
+ * window on the provider's thread.  Latencies go into a histogram of power of two buckets of
+ * microseconds, which is all the precision a "which consumer is slow" question needs.
+ */
+final class ProviderMetrics {
+
+    // Bucket i counts latencies from 2^i to 2^(i+1) microseconds; the last one everything above
+    static final int HISTOGRAM_BUCKETS = 24;
+
+    private static final class Operation {
+        long calls;
+        long totalNanos;
+        long maxNanos;
+        long rows;
+        long cells;
+        long columns;
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        final HashMap<String, Long> callers = new HashMap<String, Long>();
+    }
+
+    private final boolean mEnabled;
+    private final AtomicLong mQueryCount = new AtomicLong();
+    // Sorted so that the dump is stable
+    private final TreeMap<String, Operation> mOperations = new TreeMap<String, Operation>();
+
+    ProviderMetrics(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record}, or 0 when disabled
+     */
+    long start() {
+        return mEnabled ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    void countQuery() {
+        mQueryCount.incrementAndGet();
+    }
+
+    long getQueryCount() {
+        return mQueryCount.get();
+    }
+
+    /**
+     * @param rows rows returned or written
+     * @param columns columns returned or written per row
+     * @param caller who asked, for telling consumers apart
+     */
+    void record(String operation, String match, long startNanos, int rows, int columns,
+                String caller) {
+        if (!mEnabled) {
+            return;
+        }
+        final long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        final long micros = nanos / 1000;
+        final int bucket = Math.min(HISTOGRAM_BUCKETS - 1,
+                micros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(micros));
+
+        final String key = operation + " " + match;
+        synchronized (this) {
+            Operation op = mOperations.get(key);
+            if (op == null) {
+                op = new Operation();
+                mOperations.put(key, op);
+            }
+            op.calls++;
+            op.totalNanos += nanos;
+            op.maxNanos = Math.max(op.maxNanos, nanos);
+            op.rows += rows;
+            op.cells += (long) rows * columns;
+            op.columns += columns;
+            op.histogram[bucket]++;
+            Long count = op.callers.get(caller);
+            op.callers.put(caller, count == null ? 1 : count + 1);
+        }
+    }
+
+    synchronized void reset() {
+        mOperations.clear();
+    }
+
+    synchronized Bundle toBundle() {
+        Bundle result = new Bundle();
+        result.putBoolean(MetricsEntry.EXTRA_ENABLED, mEnabled);
+        result.putLong(MetricsEntry.EXTRA_QUERY_COUNT, mQueryCount.get());
+
+        Bundle operations = new Bundle();
+        for (Map.Entry<String, Operation> entry : mOperations.entrySet()) {
+            Operation op = entry.getValue();
+            Bundle bundle = new Bundle();
+            bundle.putLong(MetricsEntry.KEY_CALLS, op.calls);
+            bundle.putLong(MetricsEntry.KEY_TOTAL_MICROS, op.totalNanos / 1000);
+            bundle.putLong(MetricsEntry.KEY_MAX_MICROS, op.maxNanos / 1000);
+            bundle.putLong(MetricsEntry.KEY_ROWS, op.rows);
+            bundle.putLong(MetricsEntry.KEY_CELLS, op.cells);
+            bundle.putLong(MetricsEntry.KEY_COLUMNS, op.columns);
+            bundle.putLongArray(MetricsEntry.KEY_LATENCY_HISTOGRAM, op.histogram.clone());
+            Bundle callers = new Bundle();
+            for (Map.Entry<String, Long> caller : op.callers.entrySet()) {
+                callers.putLong(caller.getKey(), caller.getValue());
+            }
+            bundle.putBundle(MetricsEntry.KEY_CALLERS, callers);
+            operations.putBundle(entry.getKey(), bundle);
+        }
+        result.putBundle(MetricsEntry.EXTRA_OPERATIONS, operations);
+        return result;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Provider metrics (" + (mEnabled ? "enabled" : "disabled") + ")");
+        writer.println("  queries: " + mQueryCount.get());
+        for (Map.Entry<String, Operation> entry : mOperations.entrySet()) {
+            Operation op = entry.getValue();
+            writer.println("  " + entry.getKey() + ": calls=" + op.calls +
+                    " avg=" + op.totalNanos / 1000 / op.calls + "us" +
+                    " max=" + op.maxNanos / 1000 + "us" +
+                    " rows=" + op.rows +
+                    " cells=" + op.cells +
+                    " avgColumns=" + op.columns / op.calls);
+
+            StringBuilder histogram = new StringBuilder("    latency:");
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                if (op.histogram[i] == 0) {
+                    continue;
+                }
+                if (i < HISTOGRAM_BUCKETS - 1) {
+                    histogram.append(" <").append(1L << (i + 1));
+                } else {
+                    histogram.append(" >=").append(1L << i);
+                }
+                histogram.append("us=").append(op.histogram[i]);
+            }
+            writer.println(histogram);
+            for (Map.Entry<String, Long> caller : op.callers.entrySet()) {
+                writer.println("    " + caller.getKey() + ": " + caller.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+
+/**
+ * The provider's cache of today's summary per location setting.
+ *
+ * Entries are dropped on every write and whenever the day changes.  A summary read from the
+ * database is only stored if no write happened while it was being read, so a slow reader can
+ * never put back data that a writer has just replaced.
+ */
+final class TodaySummaryCache {
+
+    // Stored for locations without a forecast, so misses are cached too
+    private static final Bundle NO_SUMMARY = Bundle.EMPTY;
+
+    private final HashMap<String, Bundle> mSummaries = new HashMap<String, Bundle>();
+    private long mGeneration;
+    private int mDay;
+
+    /**
+     * @return true if the location is cached; its summary (or null if it has no forecast) is
+     * then copied into result
+     */
+    synchronized boolean get(String locationSetting, int today, Bundle result) {
+        if (today != mDay) {
+            mSummaries.clear();
+            mDay = today;
+            return false;
+        }
+        Bundle summary = mSummaries.get(locationSetting);
+        if (summary == null) {
+            return false;
+        }
+        result.putAll(summary);
+        return true;
+    }
+
+    /**
+     * @return a token to pass to {@link #put} once the summary has been read
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @param summary the summary, or null if the location has no forecast
+     */
+    synchronized void put(String locationSetting, int today, long generation, Bundle summary) {
+        if (generation == mGeneration && today == mDay) {
+            mSummaries.put(locationSetting, summary != null ? summary : NO_SUMMARY);
+        }
+    }
+
+    synchronized void invalidate() {
+        mGeneration++;
+        mSummaries.clear();
+    }
+}
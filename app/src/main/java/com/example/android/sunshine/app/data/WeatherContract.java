@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,13 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_CURRENT = "current";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the local day.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return EpochDay.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +78,130 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Provider method, for use with ContentResolver.call() with the location setting as arg
+        // and COLUMN_CITY_NAME, COLUMN_COORD_LAT and COLUMN_COORD_LONG in the extras.  Inserts
+        // the location unless it already exists, and returns its _ID in a Bundle.
+        public static final String METHOD_RESOLVE = "resolveLocation";
+
+        // Spatial lookups.  "nearest" returns the locations closest to PARAM_LAT/PARAM_LON,
+        // closest first, with their COLUMN_DISTANCE; "within" returns the locations inside the
+        // PARAM_SOUTH/PARAM_WEST/PARAM_NORTH/PARAM_EAST box, which crosses the antimeridian
+        // when west is greater than east.  All in degrees.
+        public static final String PATH_NEAREST = "nearest";
+        public static final String PATH_WITHIN = "within";
+
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_SOUTH = "south";
+        public static final String PARAM_WEST = "west";
+        public static final String PARAM_NORTH = "north";
+        public static final String PARAM_EAST = "east";
+
+        // Great circle distance from the point of a nearest query, in kilometers
+        public static final String COLUMN_DISTANCE = "distance";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildNearestUri(double lat, double lon, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LON, Double.toString(lon))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static Uri buildWithinUri(double south, double west, double north, double east) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_WITHIN)
+                    .appendQueryParameter(PARAM_SOUTH, Double.toString(south))
+                    .appendQueryParameter(PARAM_WEST, Double.toString(west))
+                    .appendQueryParameter(PARAM_NORTH, Double.toString(north))
+                    .appendQueryParameter(PARAM_EAST, Double.toString(east))
+                    .build();
+        }
+
+        /**
+         * @param param one of the PARAM_ coordinates above
+         * @return the coordinate, in degrees
+         * @throws IllegalArgumentException if the uri doesn't have it, or it is not a number
+         * within [-90, 90] for a latitude or [-180, 180] for a longitude
+         */
+        public static double getCoordinateFromUri(Uri uri, String param) {
+            final String value = uri.getQueryParameter(param);
+            if (value == null) {
+                throw new IllegalArgumentException("Missing " + param + " in " + uri);
+            }
+            final double coordinate = Double.parseDouble(value);
+            final double bound = PARAM_LAT.equals(param) || PARAM_SOUTH.equals(param) ||
+                    PARAM_NORTH.equals(param) ? 90 : 180;
+            // Also false for NaN, which would keep a nearest search growing forever
+            if (!(coordinate >= -bound && coordinate <= bound)) {
+                throw new IllegalArgumentException("Bad " + param + " in " + uri);
+            }
+            return coordinate;
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 1;
+        }
+    }
+
+    /* Inner class that defines the city search index and its type-ahead URI */
+    public static final class CitySearchEntry implements BaseColumns {
+
+        public static final String PATH_SEARCH = "search";
+
+        public static final Uri CONTENT_URI =
+                LocationEntry.CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_LOCATION + "/" + PATH_SEARCH;
+
+        public static final String TABLE_NAME = "city_search";
+
+        // Maximum number of matches, as a query parameter.  Defaults to DEFAULT_LIMIT.
+        public static final String PARAM_LIMIT = "limit";
+        public static final int DEFAULT_LIMIT = 20;
+
+        // Same meaning as the LocationEntry columns of the same names.  The location setting
+        // is what to store in the location preference when the match is picked.
+        public static final String COLUMN_CITY_NAME = "city_name";
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // 1 if the city is in the location table, 0 if it only comes from the gazetteer.
+        // Stored cities are ranked first.
+        public static final String COLUMN_STORED = "stored";
+
+        // Ranking weight of gazetteer cities, typically their population
+        public static final String COLUMN_WEIGHT = "weight";
+
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon().appendPath(text).build();
+        }
+
+        public static Uri buildSearchUri(String text, int limit) {
+            return buildSearchUri(text).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static String getSearchTextFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return DEFAULT_LIMIT;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -99,6 +217,17 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Provider method, for use with ContentResolver.call() with the location setting as arg.
+        // Returns the first forecast from today on as a Bundle keyed by COLUMN_DATE,
+        // COLUMN_WEATHER_ID, COLUMN_SHORT_DESC, COLUMN_MAX_TEMP and COLUMN_MIN_TEMP, or null if
+        // there is none.
+        public static final String METHOD_GET_TODAY_SUMMARY = "getTodaySummary";
+
+        // Provider method, for use with ContentResolver.call() with the location setting as arg.
+        // Publishes the location's ForecastSnapshot if it has none yet.  Use
+        // ForecastSnapshot.load() rather than calling this directly.
+        public static final String METHOD_PUBLISH_SNAPSHOT = "publishSnapshot";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -165,4 +294,226 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the columns of the forecast summary URI */
+    public static final class StatsEntry {
+
+        public static final String PATH_STATS = "stats";
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_WEATHER + "/" + PATH_STATS;
+
+        // Inclusive date range, as query parameters in milliseconds.  Either may be left out.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        // Number of forecast days in the range
+        public static final String COLUMN_DAYS = "days";
+
+        // Lowest low and highest high in the range
+        public static final String COLUMN_LOW = "low";
+        public static final String COLUMN_HIGH = "high";
+
+        // Means of the daily lows and highs in the range
+        public static final String COLUMN_MEAN_LOW = "mean_low";
+        public static final String COLUMN_MEAN_HIGH = "mean_high";
+
+        // Days with thunderstorms, drizzle or rain (weather ids 200 to 599)
+        public static final String COLUMN_RAINY_DAYS = "rainy_days";
+
+        // First and last forecast dates in the range, in milliseconds
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+
+        public static Uri buildStatsUri(String locationSetting, long fromDate, long toDate) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_FROM, Long.MIN_VALUE);
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_TO, Long.MAX_VALUE);
+        }
+
+        private static long getDateParameter(Uri uri, String name, long defaultValue) {
+            String dateString = uri.getQueryParameter(name);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return defaultValue;
+        }
+    }
+
+    /* Inner class that defines the table contents of the history table */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Provider methods, for use with ContentResolver.call().
+        // Moves forecasts on or before the date in arg (milliseconds) into the history table.
+        public static final String METHOD_ARCHIVE = "archiveWeather";
+        // Rolls old daily history up into weeks and months, a bounded amount per call.
+        public static final String METHOD_COMPACT = "compactHistory";
+        // Number of rows (or buckets, for METHOD_COMPACT) the call touched.
+        public static final String EXTRA_ROW_COUNT = "row_count";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+
+        // What a row summarizes, one of the PERIOD_ values below.
+        public static final String COLUMN_PERIOD = "period";
+        public static final int PERIOD_DAY = 0;
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        // First day of the period, stored as a local epoch day (days since 1970-01-01).
+        // Weeks start on Monday.
+        public static final String COLUMN_DATE = "date";
+
+        // The most severe weather id in the period: tornado, then storm, snow, rain, light
+        // rain, fog, clouds, light clouds, clear, and codes of no known kind last.  Within a
+        // kind, the higher code.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Lowest and highest temperatures over the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Means of the daily lows and highs over the period
+        public static final String COLUMN_MEAN_MIN_TEMP = "mean_min";
+        public static final String COLUMN_MEAN_MAX_TEMP = "mean_max";
+
+        // Means over the period, in the same units as WeatherEntry
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // Number of days the row summarizes
+        public static final String COLUMN_SAMPLES = "samples";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /* Inner class that defines the keys of the provider's metrics */
+    public static final class MetricsEntry {
+
+        // Provider methods, for use with ContentResolver.call() on BASE_CONTENT_URI.
+        // Returns the metrics as a Bundle with the EXTRA_ keys below.
+        public static final String METHOD_GET_METRICS = "getMetrics";
+        // Clears the per operation metrics.  The query count keeps counting.
+        public static final String METHOD_RESET_METRICS = "resetMetrics";
+
+        // Whether the per operation metrics are being recorded (boolean)
+        public static final String EXTRA_ENABLED = "enabled";
+        // Queries served since the provider started, always counted (long)
+        public static final String EXTRA_QUERY_COUNT = "query_count";
+        // A Bundle per operation, keyed by the operation and the URI match, e.g.
+        // "query WEATHER_WITH_LOCATION".  Each holds the KEY_ values below.
+        public static final String EXTRA_OPERATIONS = "operations";
+
+        public static final String KEY_CALLS = "calls";
+        public static final String KEY_TOTAL_MICROS = "total_micros";
+        public static final String KEY_MAX_MICROS = "max_micros";
+        // Rows returned by queries, or written by inserts, updates and deletes
+        public static final String KEY_ROWS = "rows";
+        // Sum over calls of rows times columns, a stand-in for cursor window bytes
+        public static final String KEY_CELLS = "cells";
+        // Sum over calls of the projection width
+        public static final String KEY_COLUMNS = "columns";
+        // long[] of call counts, bucket i for latencies of 2^i to 2^(i+1) microseconds
+        public static final String KEY_LATENCY_HISTOGRAM = "latency_histogram";
+        // Bundle of call counts keyed by calling package and thread
+        public static final String KEY_CALLERS = "callers";
+    }
+
+    /* Provider methods for keeping the database file in shape, with no table of their own */
+    public static final class MaintenanceEntry {
+
+        // Provider method, for use with ContentResolver.call() on BASE_CONTENT_URI.  Reclaims
+        // free pages, refreshes the planner's statistics and checks the database, which takes
+        // a while, so only run it from the maintenance job.  Returns the EXTRA_ keys below.
+        public static final String METHOD_RUN_MAINTENANCE = "runMaintenance";
+
+        // Size of the database file and its write-ahead log, in bytes (long)
+        public static final String EXTRA_FILE_SIZE_BEFORE = "file_size_before";
+        public static final String EXTRA_FILE_SIZE_AFTER = "file_size_after";
+        // Pages in the database, and how many of them are unused (long)
+        public static final String EXTRA_PAGE_COUNT_BEFORE = "page_count_before";
+        public static final String EXTRA_PAGE_COUNT_AFTER = "page_count_after";
+        public static final String EXTRA_FREE_PAGES_BEFORE = "free_pages_before";
+        public static final String EXTRA_FREE_PAGES_AFTER = "free_pages_after";
+        public static final String EXTRA_PAGE_SIZE = "page_size";
+        // Whether PRAGMA quick_check found nothing wrong (boolean), and what it said (String)
+        public static final String EXTRA_CHECK_PASSED = "check_passed";
+        public static final String EXTRA_CHECK_RESULT = "check_result";
+        // How long it all took (long)
+        public static final String EXTRA_DURATION_MILLIS = "duration_millis";
+    }
+
+    /* Inner class that defines the table contents of the current conditions table */
+    public static final class CurrentEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+
+        public static final String TABLE_NAME = "current_conditions";
+
+        // One row per location, keyed by the location's id.  Also the _id of the row.
+        public static final String COLUMN_LOC_KEY = "location_id";
+
+        // Copied from the location table so that readers don't need the join
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // The first forecast from the day of the last sync on, with the same meaning and
+        // units as the WeatherEntry columns of the same names
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MIN_TEMP = "min";
+
+        // When the location's forecast was last inserted, in milliseconds since the epoch, or 0
+        // if it's not known.  Updates, deletes and archiving leave it alone.
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        // Up to seven days starting at COLUMN_DATE, packed as a blob.  Read it with
+        // ForecastDigest.
+        public static final String COLUMN_DIGEST = "digest";
+
+        public static Uri buildCurrentLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
 }
@@ -18,22 +18,54 @@ package com.example.android.sunshine.app.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The compact layout lives in its own file, so flipping the setting never mixes layouts.
+    static final String COMPACT_DATABASE_NAME = "weather_compact.db";
+
+    private final Context mContext;
+    private final WeatherStorage mStorage;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, context.getResources().getBoolean(R.bool.compact_weather_storage));
+    }
+
+    WeatherDbHelper(Context context, boolean compact) {
+        super(context, compact ? COMPACT_DATABASE_NAME : DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        mStorage = new WeatherStorage(compact);
+    }
+
+    WeatherStorage getStorage() {
+        return mStorage;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        // Takes effect on a new database, or one already in full auto vacuum; DatabaseMaintenance
+        // rebuilds any other, and gives back the free pages this leaves behind
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
@@ -48,6 +80,19 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
                 " );";
 
+        sqLiteDatabase.execSQL(WeatherHistory.getCreateTableSql());
+        sqLiteDatabase.execSQL(CurrentConditions.getCreateTableSql());
+
+        if (mStorage.isCompact()) {
+            sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+            createCompactWeatherTable(sqLiteDatabase);
+            createWeatherLocationIndex(sqLiteDatabase);
+            mStorage.createTables(sqLiteDatabase);
+            LocationGrid.createTables(sqLiteDatabase);
+            createCitySearch(sqLiteDatabase);
+            return;
+        }
+
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
@@ -81,18 +126,105 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createWeatherLocationIndex(sqLiteDatabase);
+        LocationGrid.createTables(sqLiteDatabase);
+        createCitySearch(sqLiteDatabase);
+    }
+
+    private void createWeatherLocationIndex(SQLiteDatabase sqLiteDatabase) {
+        // Forecast reads look rows up by location id and then a date range.  The unique
+        // constraint's index starts with the date, so it can't serve them.
+        sqLiteDatabase.execSQL("CREATE INDEX " + WeatherEntry.TABLE_NAME + "_location_date ON " +
+                WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ");");
+    }
+
+    private void createCitySearch(SQLiteDatabase sqLiteDatabase) {
+        CitySearch.createTables(sqLiteDatabase);
+
+        // onCreate and onUpgrade both run in a transaction, which is what keeps this load fast
+        InputStream gazetteer;
+        try {
+            gazetteer = mContext.getAssets().open(CitySearch.GAZETTEER_ASSET);
+        } catch (IOException e) {
+            // No gazetteer bundled; only stored locations can be searched
+            return;
+        }
+        try {
+            int count = CitySearch.loadGazetteer(sqLiteDatabase, gazetteer);
+            Log.d(LOG_TAG, "Indexed " + count + " gazetteer cities");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the gazetteer", e);
+        }
+    }
+
+    private void createCompactWeatherTable(SQLiteDatabase sqLiteDatabase) {
+        // Same rows as the regular weather table, but the date is a local epoch day, the
+        // measurements are fixed point integers (see WeatherStorage for the scales) and the
+        // short description is looked up by weather id.  SQLite stores small integers in one
+        // to three bytes instead of eight, which keeps pages and the unique index small.
+        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < 2) {
+            // Nothing but a cache for online data back then, so it's discarded and started over
+            dropAll(sqLiteDatabase);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // From then on every version only adds to the schema, one step at a time.  The history
+        // can't be fetched again, and its rows point at location ids, so neither the history
+        // nor the location table is ever dropped.
+        if (oldVersion < 3) {
+            sqLiteDatabase.execSQL(WeatherHistory.getCreateTableSql());
+        }
+        if (oldVersion < 4) {
+            sqLiteDatabase.execSQL(CurrentConditions.getCreateTableSql());
+            CurrentConditions.refreshAll(sqLiteDatabase, mStorage, EpochDay.today());
+        }
+        if (oldVersion < 5) {
+            createCitySearch(sqLiteDatabase);
+        }
+        if (oldVersion < 6) {
+            LocationGrid.createTables(sqLiteDatabase);
+        }
+        if (oldVersion < 7) {
+            createWeatherLocationIndex(sqLiteDatabase);
+        }
+    }
+
+    private static void dropAll(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentEntry.TABLE_NAME);
+        CitySearch.dropTables(sqLiteDatabase);
+        LocationGrid.dropTables(sqLiteDatabase);
+        WeatherStorage.dropTables(sqLiteDatabase);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Retention for past forecasts.
+ *
+ * Days that have gone by are moved out of the weather table into the history table, so the
+ * weather table only ever holds the current forecast.  History is kept daily for
+ * {@link #DAILY_RETENTION_DAYS}, then rolled up into weeks, then into months, and finally
+ * dropped after {@link #MONTHLY_RETENTION_DAYS}.  Each compaction pass does a bounded amount
+ * of work, so it can run alongside a sync without holding the database for long.
+ */
+final class WeatherHistory {
+
+    static final int DAILY_RETENTION_DAYS = 30;
+    static final int WEEKLY_RETENTION_DAYS = 182;
+    static final int MONTHLY_RETENTION_DAYS = 3 * 365;
+
+    // Upper bound on the number of (location, period) buckets one compaction pass touches.
+    static final int MAX_BUCKETS_PER_PASS = 64;
+
+    // Epoch day 0 was a Thursday, so this is the Monday on or before the given day.
+    private static final String WEEK_START =
+            "(" + HistoryEntry.COLUMN_DATE + " - ((" + HistoryEntry.COLUMN_DATE + " + 3) % 7))";
+
+    // Epoch days are numbered like UTC days, so the UTC calendar gives the local month.
+    private static final String MONTH_START =
+            "CAST(julianday(date(" + HistoryEntry.COLUMN_DATE + " * 86400, 'unixepoch', " +
+                    "'start of month')) - 2440587.5 AS INTEGER)";
+
+    // How severe each kind of weather is, by kind; higher is more severe
+    private static final int[] SEVERITY = new int[WeatherConditions.KIND_COUNT];
+
+    static {
+        final int[] mildToSevere = {
+                WeatherConditions.UNKNOWN,
+                WeatherConditions.CLEAR,
+                WeatherConditions.LIGHT_CLOUDS,
+                WeatherConditions.CLOUDS,
+                WeatherConditions.FOG,
+                WeatherConditions.LIGHT_RAIN,
+                WeatherConditions.RAIN,
+                WeatherConditions.SNOW,
+                WeatherConditions.STORM,
+                WeatherConditions.TORNADO
+        };
+        for (int rank = 0; rank < mildToSevere.length; rank++) {
+            SEVERITY[mildToSevere[rank]] = rank;
+        }
+    }
+
+    // The most severe weather id of a bucket.  Condition codes are below 1000, so the severity
+    // goes in the thousands and the code in the rest, and one MAX() picks both.
+    private static final String MOST_SEVERE_WEATHER_ID =
+            "MAX(" + severitySql(HistoryEntry.COLUMN_WEATHER_ID) + " * 1000 + " +
+                    HistoryEntry.COLUMN_WEATHER_ID + ") % 1000";
+
+    private static final String[] ARCHIVE_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED
+    };
+
+    private WeatherHistory() {
+    }
+
+    static String getCreateTableSql() {
+        return "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MEAN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MEAN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_SAMPLES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                WeatherContract.LocationEntry._ID + "), " +
+
+                // One row per location, period and start day.  The index also serves the
+                // per-location range scans.
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+    }
+
+    /**
+     * Moves every forecast on or before the given date out of the weather table and into the
+     * history table as daily rows.  Must be called inside a transaction.
+     *
+     * @param before a date in milliseconds, as used by the contract
+     * @param locationIds gets the ids of the locations that had forecasts archived, if not null
+     * @return the number of forecasts archived
+     */
+    static int archive(SQLiteDatabase db, WeatherStorage storage, long before,
+                       Set<Long> locationIds) {
+        final String selection = WeatherEntry.COLUMN_DATE + " <= ?";
+        final String[] selectionArgs = new String[]{Long.toString(before)};
+
+        // Only a few days at most are ever waiting to be archived
+        Cursor cursor = db.query(storage.getReadTable(), ARCHIVE_COLUMNS, selection,
+                selectionArgs, null, null, null);
+        ContentValues values = new ContentValues();
+        try {
+            while (cursor.moveToNext()) {
+                double min = cursor.getDouble(3);
+                double max = cursor.getDouble(4);
+                values.put(HistoryEntry.COLUMN_LOC_KEY, cursor.getLong(0));
+                values.put(HistoryEntry.COLUMN_PERIOD, HistoryEntry.PERIOD_DAY);
+                values.put(HistoryEntry.COLUMN_DATE, EpochDay.fromMillis(cursor.getLong(1)));
+                values.put(HistoryEntry.COLUMN_WEATHER_ID, cursor.getInt(2));
+                values.put(HistoryEntry.COLUMN_MIN_TEMP, min);
+                values.put(HistoryEntry.COLUMN_MAX_TEMP, max);
+                values.put(HistoryEntry.COLUMN_MEAN_MIN_TEMP, min);
+                values.put(HistoryEntry.COLUMN_MEAN_MAX_TEMP, max);
+                values.put(HistoryEntry.COLUMN_HUMIDITY, cursor.getDouble(5));
+                values.put(HistoryEntry.COLUMN_PRESSURE, cursor.getDouble(6));
+                values.put(HistoryEntry.COLUMN_WIND_SPEED, cursor.getDouble(7));
+                values.put(HistoryEntry.COLUMN_SAMPLES, 1);
+                db.insert(HistoryEntry.TABLE_NAME, null, values);
+                if (locationIds != null) {
+                    locationIds.add(cursor.getLong(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return db.delete(WeatherEntry.TABLE_NAME, storage.getWriteSelection(selection),
+                selectionArgs);
+    }
+
+    /**
+     * Rolls daily history older than {@link #DAILY_RETENTION_DAYS} into weeks, weekly history
+     * older than {@link #WEEKLY_RETENTION_DAYS} into months, and drops months older than
+     * {@link #MONTHLY_RETENTION_DAYS}.  Only whole weeks and months are rolled up, oldest first.
+     * Must be called inside a transaction.
+     *
+     * @param today the current local epoch day
+     * @param maxBuckets the most buckets to roll up or rows to drop in this pass
+     * @return the number of buckets rolled up plus rows dropped; less than maxBuckets means
+     * there is nothing left to do
+     */
+    static int compact(SQLiteDatabase db, int today, int maxBuckets) {
+        int done = rollUp(db, HistoryEntry.PERIOD_DAY, HistoryEntry.PERIOD_WEEK, WEEK_START,
+                weekStart(today - DAILY_RETENTION_DAYS), maxBuckets);
+        done += rollUp(db, HistoryEntry.PERIOD_WEEK, HistoryEntry.PERIOD_MONTH, MONTH_START,
+                monthStart(today - WEEKLY_RETENTION_DAYS), maxBuckets - done);
+        done += expire(db, today - MONTHLY_RETENTION_DAYS, maxBuckets - done);
+        return done;
+    }
+
+    private static int rollUp(SQLiteDatabase db, int fromPeriod, int toPeriod, String bucketStart,
+                              int before, int maxBuckets) {
+        if (maxBuckets <= 0) {
+            return 0;
+        }
+
+        Cursor buckets = db.rawQuery("SELECT DISTINCT " + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                bucketStart + " AS bucket FROM " + HistoryEntry.TABLE_NAME +
+                " WHERE " + HistoryEntry.COLUMN_PERIOD + " = ? AND " +
+                HistoryEntry.COLUMN_DATE + " < ? ORDER BY bucket LIMIT " + maxBuckets,
+                new String[]{Integer.toString(fromPeriod), Integer.toString(before)});
+
+        // Everything in the bucket, plus the rolled up row if an earlier pass already wrote one
+        // (a late archive can add days to a bucket that has been rolled up).  Means are weighted
+        // by the number of days behind each row.
+        final String bucketRows = " WHERE " + HistoryEntry.COLUMN_LOC_KEY + " = ? AND ((" +
+                HistoryEntry.COLUMN_PERIOD + " = " + fromPeriod + " AND " +
+                HistoryEntry.COLUMN_DATE + " < " + before + " AND " +
+                bucketStart + " = CAST(? AS INTEGER)) OR (" +
+                HistoryEntry.COLUMN_PERIOD + " = " + toPeriod + " AND " +
+                HistoryEntry.COLUMN_DATE + " = ?))";
+        final String insertSql = "INSERT INTO " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_DATE + ", " +
+                HistoryEntry.COLUMN_WEATHER_ID + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_MEAN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MEAN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_HUMIDITY + ", " +
+                HistoryEntry.COLUMN_PRESSURE + ", " +
+                HistoryEntry.COLUMN_WIND_SPEED + ", " +
+                HistoryEntry.COLUMN_SAMPLES + ") SELECT " +
+                HistoryEntry.COLUMN_LOC_KEY + ", " +
+                toPeriod + ", " +
+                "?, " +
+                MOST_SEVERE_WEATHER_ID + ", " +
+                "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + "), " +
+                "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + "), " +
+                weightedMean(HistoryEntry.COLUMN_MEAN_MIN_TEMP) + ", " +
+                weightedMean(HistoryEntry.COLUMN_MEAN_MAX_TEMP) + ", " +
+                weightedMean(HistoryEntry.COLUMN_HUMIDITY) + ", " +
+                weightedMean(HistoryEntry.COLUMN_PRESSURE) + ", " +
+                weightedMean(HistoryEntry.COLUMN_WIND_SPEED) + ", " +
+                "SUM(" + HistoryEntry.COLUMN_SAMPLES + ") FROM " + HistoryEntry.TABLE_NAME +
+                bucketRows + " GROUP BY " + HistoryEntry.COLUMN_LOC_KEY;
+        final String deleteWhere = HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                HistoryEntry.COLUMN_PERIOD + " = " + fromPeriod + " AND " +
+                HistoryEntry.COLUMN_DATE + " < " + before + " AND " +
+                bucketStart + " = CAST(? AS INTEGER)";
+
+        int count = 0;
+        try {
+            while (buckets.moveToNext()) {
+                long locationId = buckets.getLong(0);
+                long bucket = buckets.getLong(1);
+                db.execSQL(insertSql, new Object[]{bucket, locationId, bucket, bucket});
+                db.delete(HistoryEntry.TABLE_NAME, deleteWhere,
+                        new String[]{Long.toString(locationId), Long.toString(bucket)});
+                count++;
+            }
+        } finally {
+            buckets.close();
+        }
+        return count;
+    }
+
+    private static int expire(SQLiteDatabase db, int before, int maxRows) {
+        if (maxRows <= 0) {
+            return 0;
+        }
+        return db.delete(HistoryEntry.TABLE_NAME, HistoryEntry._ID + " IN (SELECT " +
+                HistoryEntry._ID + " FROM " + HistoryEntry.TABLE_NAME + " WHERE " +
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_MONTH + " AND " +
+                HistoryEntry.COLUMN_DATE + " < ? LIMIT " + maxRows + ")",
+                new String[]{Integer.toString(before)});
+    }
+
+    /**
+     * @return a CASE expression giving the severity rank of the condition code in the column,
+     * one range per run of codes with the same rank
+     */
+    static String severitySql(String column) {
+        StringBuilder sql = new StringBuilder("(CASE");
+        int first = 0;
+        for (int code = 1; code <= WeatherConditions.MAX_CODE + 1; code++) {
+            if (code <= WeatherConditions.MAX_CODE && getSeverity(code) == getSeverity(first)) {
+                continue;
+            }
+            if (getSeverity(first) != 0) {
+                sql.append(" WHEN ").append(column).append(" BETWEEN ").append(first)
+                        .append(" AND ").append(code - 1).append(" THEN ")
+                        .append(getSeverity(first));
+            }
+            first = code;
+        }
+        return sql.append(" ELSE 0 END)").toString();
+    }
+
+    static int getSeverity(int weatherId) {
+        return SEVERITY[WeatherConditions.getKind(weatherId)];
+    }
+
+    private static String weightedMean(String column) {
+        return "SUM(" + column + " * " + HistoryEntry.COLUMN_SAMPLES + ") / SUM(" +
+                HistoryEntry.COLUMN_SAMPLES + ")";
+    }
+
+    static int weekStart(int epochDay) {
+        int dayOfWeek = (epochDay + 3) % 7;
+        if (dayOfWeek < 0) {
+            dayOfWeek += 7;
+        }
+        return epochDay - dayOfWeek;
+    }
+
+    static int monthStart(int epochDay) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(epochDay * EpochDay.DAY_IN_MILLIS);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        return (int) (calendar.getTimeInMillis() / EpochDay.DAY_IN_MILLIS);
+    }
+}
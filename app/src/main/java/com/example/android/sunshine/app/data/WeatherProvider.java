@@ -23,6 +23,17 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -33,22 +44,84 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_SEARCH = 301;
+    static final int LOCATION_NEAREST = 302;
+    static final int LOCATION_WITHIN = 303;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int CURRENT = 500;
+    static final int CURRENT_WITH_LOCATION = 501;
+
+    private WeatherStorage mStorage;
+    private final TodaySummaryCache mTodaySummaryCache = new TodaySummaryCache();
+    private final LocationRegistry mLocationRegistry = new LocationRegistry();
+    private ProviderMetrics mMetrics;
+    private SQLiteQueryBuilder mWeatherByLocationSettingQueryBuilder;
+    private SQLiteQueryBuilder mWeatherStatsQueryBuilder;
+    private WeatherQueries mWeatherQueries;
+
+    static SQLiteQueryBuilder buildWeatherByLocationSettingQueryBuilder(
+            WeatherStorage storage) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
-
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
+        builder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        // Maps the contract's columns onto the stored layout, when they differ
+        builder.setProjectionMap(storage.getProjectionMap());
+        return builder;
+    }
+
+    static SQLiteQueryBuilder buildWeatherStatsQueryBuilder(WeatherStorage storage) {
+        SQLiteQueryBuilder builder = buildWeatherByLocationSettingQueryBuilder(storage);
+
+        // Every stats column is an aggregate over the matching forecast days, so the result
+        // is a single row no matter how many days are in the range
+        final String min = storage.getColumnExpression(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        final String max = storage.getColumnExpression(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        final String date = storage.getColumnExpression(WeatherContract.WeatherEntry.COLUMN_DATE);
+        final String weatherId =
+                storage.getColumnExpression(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        HashMap<String, String> map = new HashMap<String, String>();
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_DAYS, "COUNT(*)");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_LOW, "MIN(" + min + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_HIGH, "MAX(" + max + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MEAN_LOW, "AVG(" + min + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MEAN_HIGH, "AVG(" + max + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_RAINY_DAYS,
+                "SUM(CASE WHEN " + weatherId + " BETWEEN 200 AND 599 THEN 1 ELSE 0 END)");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_FIRST_DATE, "MIN(" + date + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_LAST_DATE, "MAX(" + date + ")");
+        builder.setProjectionMap(map);
+        return builder;
+    }
+
+    private static void putAggregate(Map<String, String> map, String column, String aggregate) {
+        map.put(column, aggregate + " AS " + column);
+    }
+
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+
+    static{
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -56,40 +129,16 @@ public class WeatherProvider extends ContentProvider {
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
-
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
-
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
-
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
-        } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
-        }
-
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return mWeatherQueries.query(mOpenHelper.getReadableDatabase(),
+                startDate == 0 ? WeatherQueries.BY_LOCATION : WeatherQueries.BY_LOCATION_FROM_DATE,
                 projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
+                sortOrder,
+                locationSetting,
+                startDate
         );
     }
 
@@ -98,10 +147,140 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return mWeatherQueries.query(mOpenHelper.getReadableDatabase(),
+                WeatherQueries.BY_LOCATION_AND_DATE,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                sortOrder,
+                locationSetting,
+                date
+        );
+    }
+
+    // The CurrentEntry and WeatherEntry columns share their names
+    private static final String[] TODAY_SUMMARY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    //current.location_setting = ?
+    private static final String sCurrentLocationSettingSelection =
+            WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    /*
+        The first forecast from today on, as a Bundle keyed by column name.  Small readers like
+        the widget and the notification get this through call() instead of opening a Cursor,
+        and it is usually served from mTodaySummaryCache without touching the database.
+     */
+    private Bundle getTodaySummary(String locationSetting) {
+        final int today = EpochDay.today();
+        Bundle summary = new Bundle();
+        if (mTodaySummaryCache.get(locationSetting, today, summary)) {
+            return summary.isEmpty() ? null : summary;
+        }
+
+        long generation = mTodaySummaryCache.getGeneration();
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        final String todayMillis = Long.toString(EpochDay.toMillis(today));
+
+        // The current conditions row, unless it was written before today and is now stale
+        Cursor cursor = db.query(WeatherContract.CurrentEntry.TABLE_NAME,
+                TODAY_SUMMARY_COLUMNS,
+                sCurrentLocationSettingSelection + " AND " +
+                        WeatherContract.CurrentEntry.COLUMN_DATE + " >= ?",
+                new String[]{locationSetting, todayMillis},
+                null,
+                null,
+                null
+        );
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            cursor = mWeatherQueries.query(db,
+                    WeatherQueries.BY_LOCATION_FROM_DATE,
+                    TODAY_SUMMARY_COLUMNS,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                    "1",
+                    locationSetting,
+                    EpochDay.toMillis(today)
+            );
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                summary.putLong(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+                summary.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+                summary.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                        cursor.getString(2));
+                summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        cursor.getDouble(3));
+                summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                        cursor.getDouble(4));
+            } else {
+                summary = null;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The cache keeps its own copy, since in-process callers get this very Bundle
+        mTodaySummaryCache.put(locationSetting, today, generation,
+                summary != null ? new Bundle(summary) : null);
+        return summary;
+    }
+
+    private Cursor getWeatherStats(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        long fromDate = WeatherContract.StatsEntry.getFromDateFromUri(uri);
+        long toDate = WeatherContract.StatsEntry.getToDateFromUri(uri);
+
+        StringBuilder selection = new StringBuilder(sLocationSettingSelection);
+        ArrayList<String> selectionArgs = new ArrayList<String>(3);
+        selectionArgs.add(locationSetting);
+        if (fromDate != Long.MIN_VALUE) {
+            selection.append(" AND ").append(WeatherContract.WeatherEntry.TABLE_NAME).append('.')
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" >= ? ");
+            selectionArgs.add(mStorage.getDateArg(fromDate));
+        }
+        if (toDate != Long.MAX_VALUE) {
+            selection.append(" AND ").append(WeatherContract.WeatherEntry.TABLE_NAME).append('.')
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" <= ? ");
+            selectionArgs.add(mStorage.getDateArg(toDate));
+        }
+
+        // Grouping by location means an empty range gives an empty cursor rather than a
+        // row of nulls
+        return mWeatherStatsQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                WeatherContract.LocationEntry.TABLE_NAME + "." +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                null,
+                null
+        );
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String selection,
+                                               String[] selectionArgs, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+
+        // The caller's selection narrows it down further, e.g. to one period
+        String historySelection = sLocationSettingSelection;
+        String[] historySelectionArgs = new String[]{locationSetting};
+        if (selection != null) {
+            historySelection = sLocationSettingSelection + " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                historySelectionArgs = new String[selectionArgs.length + 1];
+                historySelectionArgs[0] = locationSetting;
+                System.arraycopy(selectionArgs, 0, historySelectionArgs, 1, selectionArgs.length);
+            }
+        }
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                historySelection,
+                historySelectionArgs,
                 null,
                 null,
                 sortOrder
@@ -128,8 +307,22 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.StatsEntry.PATH_STATS, WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.CitySearchEntry.PATH_SEARCH + "/*", LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAREST, LOCATION_NEAREST);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_WITHIN, LOCATION_WITHIN);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT, CURRENT);
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT + "/*", CURRENT_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,9 +333,42 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mStorage = mOpenHelper.getStorage();
+        mWeatherByLocationSettingQueryBuilder = buildWeatherByLocationSettingQueryBuilder(mStorage);
+        mWeatherStatsQueryBuilder = buildWeatherStatsQueryBuilder(mStorage);
+        mWeatherQueries = new WeatherQueries(mWeatherByLocationSettingQueryBuilder, mStorage,
+                mLocationRegistry);
+        mMetrics = new ProviderMetrics(
+                getContext().getResources().getBoolean(R.bool.provider_metrics));
         return true;
     }
 
+    /*
+        The name of a match code, for the metrics.
+     */
+    static String getMatchName(int match) {
+        switch (match) {
+            case WEATHER: return "WEATHER";
+            case WEATHER_WITH_LOCATION: return "WEATHER_WITH_LOCATION";
+            case WEATHER_WITH_LOCATION_AND_DATE: return "WEATHER_WITH_LOCATION_AND_DATE";
+            case WEATHER_STATS: return "WEATHER_STATS";
+            case LOCATION: return "LOCATION";
+            case LOCATION_SEARCH: return "LOCATION_SEARCH";
+            case LOCATION_NEAREST: return "LOCATION_NEAREST";
+            case LOCATION_WITHIN: return "LOCATION_WITHIN";
+            case HISTORY: return "HISTORY";
+            case HISTORY_WITH_LOCATION: return "HISTORY_WITH_LOCATION";
+            case CURRENT: return "CURRENT";
+            case CURRENT_WITH_LOCATION: return "CURRENT_WITH_LOCATION";
+            default: return "UNKNOWN";
+        }
+    }
+
+    // The calling package, and the thread, which tells apart the app's own components
+    private String getCaller() {
+        return getCallingPackage() + "/" + Thread.currentThread().getName();
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -160,10 +386,24 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_ITEM_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_SEARCH:
+                return WeatherContract.CitySearchEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+            case LOCATION_WITHIN:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case CURRENT:
+                return WeatherContract.CurrentEntry.CONTENT_TYPE;
+            case CURRENT_WITH_LOCATION:
+                return WeatherContract.CurrentEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,16 +412,25 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final long start = mMetrics.start();
+        mMetrics.countQuery();
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStats(uri, projection);
+                break;
+            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
@@ -190,7 +439,7 @@ public class WeatherProvider extends ContentProvider {
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        mStorage.getReadTable(),
                         projection,
                         selection,
                         selectionArgs,
@@ -213,11 +462,92 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/search/*"
+            case LOCATION_SEARCH: {
+                retCursor = CitySearch.search(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.CitySearchEntry.getSearchTextFromUri(uri),
+                        WeatherContract.CitySearchEntry.getLimitFromUri(uri));
+                break;
+            }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                retCursor = LocationGrid.nearest(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_LAT),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_LON),
+                        WeatherContract.LocationEntry.getLimitFromUri(uri));
+                break;
+            }
+            // "location/within"
+            case LOCATION_WITHIN: {
+                retCursor = LocationGrid.within(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_SOUTH),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_WEST),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_NORTH),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_EAST),
+                        sortOrder);
+                break;
+            }
+            // "current/*"
+            case CURRENT_WITH_LOCATION: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CurrentEntry.TABLE_NAME,
+                        projection,
+                        sCurrentLocationSettingSelection,
+                        new String[]{WeatherContract.CurrentEntry.getLocationSettingFromUri(uri)},
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "current"
+            case CURRENT: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CurrentEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (mMetrics.isEnabled()) {
+            // getCount() runs the query and fills the window, so the latency is the real one
+            mMetrics.record("query", getMatchName(match), start, retCursor.getCount(),
+                    retCursor.getColumnCount(), getCaller());
+        }
         return retCursor;
     }
 
@@ -226,14 +556,32 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                db.beginTransaction();
+                try {
+                    mStorage.encode(db, values);
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if (_id > 0) {
+                        CurrentConditions.refresh(db, mStorage,
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                EpochDay.today(), System.currentTimeMillis());
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (_id > 0) {
+                    ForecastSnapshot.publish(db, mWeatherByLocationSettingQueryBuilder,
+                            Collections.singleton(values.getAsLong(
+                                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -251,97 +599,351 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        onWeatherChanged();
         getContext().getContentResolver().notifyChange(uri, null);
+        if (mMetrics.isEnabled()) {
+            mMetrics.record("insert", getMatchName(match), start, 1, values.size(), getCaller());
+        }
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        HashSet<Long> locationIds = null;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    selection = mStorage.getWriteSelection(selection);
+                    locationIds = getLocationIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection,
+                            selectionArgs);
+                    rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    locationIds = getLocationIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                            WeatherContract.LocationEntry._ID, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case HISTORY:
+                    rowsDeleted = db.delete(
+                            WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            // Deleted ids must not be handed out again
+            if (rowsDeleted != 0 && match == LOCATION) {
+                mLocationRegistry.invalidate();
+            }
+            // Keep the current conditions of the locations it touched in step with the
+            // forecasts they summarize
+            if (rowsDeleted != 0 && locationIds != null) {
+                CurrentConditions.refresh(db, mStorage, locationIds, EpochDay.today(),
+                        CurrentConditions.FETCHED_AT_UNCHANGED);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsDeleted != 0 && locationIds != null) {
+            ForecastSnapshot.publish(db, mWeatherByLocationSettingQueryBuilder, locationIds);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            onWeatherChanged();
             getContext().getContentResolver().notifyChange(uri, null);
         }
-        return rowsDeleted;
-    }
-
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+        if (mMetrics.isEnabled()) {
+            mMetrics.record("delete", getMatchName(match), start, rowsDeleted, 0, getCaller());
         }
+        return rowsDeleted;
     }
 
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
-
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        HashSet<Long> locationIds;
+
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    mStorage.encode(db, values);
+                    selection = mStorage.getWriteSelection(selection);
+                    locationIds = getLocationIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection,
+                            selectionArgs);
+                    // Rows moved to another location change that one's forecast too
+                    Long movedTo = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    if (movedTo != null) {
+                        locationIds.add(movedTo);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    locationIds = getLocationIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                            WeatherContract.LocationEntry._ID, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            // An update may have changed a location's setting
+            if (rowsUpdated != 0 && match == LOCATION) {
+                mLocationRegistry.invalidate();
+            }
+            // Keep the current conditions of the locations it touched in step with the
+            // forecasts they summarize
+            if (rowsUpdated != 0) {
+                CurrentConditions.refresh(db, mStorage, locationIds, EpochDay.today(),
+                        CurrentConditions.FETCHED_AT_UNCHANGED);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         if (rowsUpdated != 0) {
+            ForecastSnapshot.publish(db, mWeatherByLocationSettingQueryBuilder, locationIds);
+            onWeatherChanged();
             getContext().getContentResolver().notifyChange(uri, null);
         }
+        if (mMetrics.isEnabled()) {
+            mMetrics.record("update", getMatchName(match), start, rowsUpdated, values.size(),
+                    getCaller());
+        }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                HashSet<Long> locationIds = new HashSet<Long>();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
+                        mStorage.encode(db, value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            locationIds.add(value.getAsLong(
+                                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
                         }
                     }
+                    // Written in the same transaction, so readers never see the new forecast
+                    // with the old current conditions
+                    CurrentConditions.refresh(db, mStorage, locationIds, EpochDay.today(),
+                            System.currentTimeMillis());
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
+                // Committed, so the snapshots can't show rows that get rolled back
+                ForecastSnapshot.publish(db, mWeatherByLocationSettingQueryBuilder, locationIds);
+                onWeatherChanged();
                 getContext().getContentResolver().notifyChange(uri, null);
+                if (mMetrics.isEnabled()) {
+                    mMetrics.record("bulkInsert", getMatchName(match), start, returnCount,
+                            values.length > 0 ? values[0].size() : 0, getCaller());
+                }
                 return returnCount;
+            case LOCATION: {
+                // One transaction for the whole import, with every location resolved through
+                // the registry so rows that are already there are left alone
+                int insertCount = 0;
+                int[] outcome = new int[1];
+                boolean committed = false;
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        long _id = mLocationRegistry.resolve(db, value, outcome);
+                        if (_id != -1 && outcome[0] == LocationRegistry.INSERTED) {
+                            insertCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                    committed = true;
+                } finally {
+                    db.endTransaction();
+                    // Ids cached for rows that were rolled back don't exist
+                    if (!committed) {
+                        mLocationRegistry.invalidate();
+                    }
+                }
+                if (insertCount != 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                if (mMetrics.isEnabled()) {
+                    mMetrics.record("bulkInsert", getMatchName(match), start, insertCount,
+                            values.length > 0 ? values[0].size() : 0, getCaller());
+                }
+                return insertCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Maps a location setting to its row id, inserting the location if it is new.  Once a
+        setting has been resolved, later calls are answered from mLocationRegistry.
+     */
+    private Bundle resolveLocation(String locationSetting, Bundle extras) {
+        long _id = mLocationRegistry.get(locationSetting);
+        if (_id == -1) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                    extras.getString(WeatherContract.LocationEntry.COLUMN_CITY_NAME));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+
+            int[] outcome = new int[1];
+            _id = mLocationRegistry.resolve(mOpenHelper.getWritableDatabase(), values, outcome);
+            if (_id == -1) {
+                throw new android.database.SQLException(
+                        "Failed to resolve location " + locationSetting);
+            }
+            if (outcome[0] == LocationRegistry.INSERTED) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.LocationEntry.CONTENT_URI, null);
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.LocationEntry._ID, _id);
+        return result;
+    }
+
+    /*
+        The locations whose rows in the table match the selection, read in the write's
+        transaction before the write so that only their current conditions and snapshots are
+        rebuilt after it.
+     */
+    private static HashSet<Long> getLocationIds(SQLiteDatabase db, String table, String column,
+                                                String selection, String[] selectionArgs) {
+        HashSet<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = db.query(true, table, new String[]{column}, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /*
+        Every write to the weather or location tables may have rewritten current conditions
+        rows, so their readers are told as well as the ones of the uri that was written.
+     */
+    private void onWeatherChanged() {
+        mTodaySummaryCache.invalidate();
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.CurrentEntry.CONTENT_URI, null);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_GET_TODAY_SUMMARY.equals(method)) {
+            return getTodaySummary(arg);
+        }
+
+        if (WeatherContract.MetricsEntry.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        }
+        if (WeatherContract.MetricsEntry.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        }
+        if (WeatherContract.WeatherEntry.METHOD_PUBLISH_SNAPSHOT.equals(method)) {
+            ForecastSnapshot.publish(mOpenHelper.getReadableDatabase(),
+                    mWeatherByLocationSettingQueryBuilder, arg);
+            return null;
+        }
+        if (WeatherContract.LocationEntry.METHOD_RESOLVE.equals(method)) {
+            return resolveLocation(arg, extras);
+        }
+        if (WeatherContract.MaintenanceEntry.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return DatabaseMaintenance.run(mOpenHelper.getWritableDatabase(),
+                    getContext().getDatabasePath(mOpenHelper.getDatabaseName()));
+        }
+
+        int count;
+        if (WeatherContract.HistoryEntry.METHOD_ARCHIVE.equals(method)) {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            HashSet<Long> locationIds = new HashSet<Long>();
+            db.beginTransaction();
+            try {
+                count = WeatherHistory.archive(db, mStorage, Long.parseLong(arg), locationIds);
+                if (count != 0) {
+                    CurrentConditions.refresh(db, mStorage, locationIds, EpochDay.today(),
+                            CurrentConditions.FETCHED_AT_UNCHANGED);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (count != 0) {
+                ForecastSnapshot.publish(db, mWeatherByLocationSettingQueryBuilder, locationIds);
+                onWeatherChanged();
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.HistoryEntry.CONTENT_URI, null);
+            }
+        } else if (WeatherContract.HistoryEntry.METHOD_COMPACT.equals(method)) {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                count = WeatherHistory.compact(db, EpochDay.today(),
+                        WeatherHistory.MAX_BUCKETS_PER_PASS);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (count != 0) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.HistoryEntry.CONTENT_URI, null);
+            }
+        } else {
+            return super.call(method, arg, extras);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.HistoryEntry.EXTRA_ROW_COUNT, count);
+        return result;
+    }
+
+    // Shows up in "adb shell dumpsys activity provider WeatherProvider"
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * The provider's hot forecast queries, by location and optionally by date.
+ *
+ * SQLiteQueryBuilder builds the SQL of the join again on every query, and the selection needs
+ * its arguments as strings.  This builds the SQL once per selection, projection and sort order
+ * and keeps it, so a repeated query is a lookup, and binds the arguments directly with their
+ * types.  Reusing the exact same SQL also lets each database connection reuse the statement
+ * it compiled for it last time instead of preparing it again.
+ *
+ * The location setting is resolved to its row id through the {@link LocationRegistry}, so the
+ * weather rows are found by integer key on the (location_id, date) index, and the location
+ * table is only joined in when the projection or the sort order asks for its columns.
+ */
+final class WeatherQueries {
+
+    // location.location_setting = ?
+    static final int BY_LOCATION = 0;
+    // location.location_setting = ? AND date >= ?
+    static final int BY_LOCATION_FROM_DATE = 1;
+    // location.location_setting = ? AND date = ?
+    static final int BY_LOCATION_AND_DATE = 2;
+
+    // The same, on the resolved location id
+    private static final String[] SELECTIONS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = ?",
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " >= ?",
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = ?"
+    };
+
+    // Columns that can only come from the location table
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // Clients use a handful of projections, so this only limits a misbehaving one
+    static final int MAX_PLANS_PER_SELECTION = 16;
+
+    private static final class Plan {
+        final String[] projection;
+        final String sortOrder;
+        final String limit;
+        final String sql;
+
+        Plan(String[] projection, String sortOrder, String limit, String sql) {
+            this.projection = projection;
+            this.sortOrder = sortOrder;
+            this.limit = limit;
+            this.sql = sql;
+        }
+    }
+
+    // Binds the arguments of one query by type when the cursor's query is created
+    private static final class Binder implements SQLiteDatabase.CursorFactory {
+        private final long mLocationId;
+        private final boolean mHasDate;
+        private final long mDate;
+
+        Binder(long locationId, boolean hasDate, long date) {
+            mLocationId = locationId;
+            mHasDate = hasDate;
+            mDate = date;
+        }
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                SQLiteQuery query) {
+            query.bindLong(1, mLocationId);
+            if (mHasDate) {
+                query.bindLong(2, mDate);
+            }
+            return new SQLiteCursor(driver, editTable, query);
+        }
+    }
+
+    private final SQLiteQueryBuilder mJoinBuilder;
+    private final SQLiteQueryBuilder mWeatherBuilder;
+    private final WeatherStorage mStorage;
+    private final LocationRegistry mLocationRegistry;
+    private final Plan[][] mPlans = new Plan[SELECTIONS.length][MAX_PLANS_PER_SELECTION];
+    // Where the next plan of each selection goes, once its slots are all taken
+    private final int[] mNextSlot = new int[SELECTIONS.length];
+
+    /**
+     * @param joinBuilder a builder over weather INNER JOIN location, for projections that
+     *                    need location columns
+     */
+    WeatherQueries(SQLiteQueryBuilder joinBuilder, WeatherStorage storage,
+                   LocationRegistry locationRegistry) {
+        mJoinBuilder = joinBuilder;
+        mStorage = storage;
+        mLocationRegistry = locationRegistry;
+
+        mWeatherBuilder = new SQLiteQueryBuilder();
+        mWeatherBuilder.setTables(WeatherEntry.TABLE_NAME);
+        mWeatherBuilder.setProjectionMap(storage.getProjectionMap());
+    }
+
+    Cursor query(SQLiteDatabase db, int selection, String[] projection, String sortOrder,
+                 String locationSetting, long date) {
+        return query(db, selection, projection, sortOrder, null, locationSetting, date);
+    }
+
+    /**
+     * @param selection one of BY_LOCATION, BY_LOCATION_FROM_DATE or BY_LOCATION_AND_DATE
+     * @param date the date in milliseconds, as used by the contract; ignored for BY_LOCATION
+     */
+    Cursor query(SQLiteDatabase db, int selection, String[] projection, String sortOrder,
+                 String limit, String locationSetting, long date) {
+        // An unknown location matches no rows, and still gives a cursor with the columns
+        final long locationId = mLocationRegistry.lookup(db, locationSetting);
+        final boolean hasDate = selection != BY_LOCATION;
+        return db.rawQueryWithFactory(
+                new Binder(locationId, hasDate, hasDate ? mStorage.getDateValue(date) : 0),
+                getSql(selection, projection, sortOrder, limit),
+                null,
+                null);
+    }
+
+    String getSql(int selection, String[] projection, String sortOrder, String limit) {
+        synchronized (mPlans) {
+            for (Plan plan : mPlans[selection]) {
+                if (plan == null) {
+                    break;
+                }
+                if (Arrays.equals(plan.projection, projection) &&
+                        TextUtils.equals(plan.sortOrder, sortOrder) &&
+                        TextUtils.equals(plan.limit, limit)) {
+                    return plan.sql;
+                }
+            }
+        }
+
+        // Built outside the lock; two threads may both build a new plan, which is harmless
+        final SQLiteQueryBuilder builder =
+                needsLocation(projection, sortOrder) ? mJoinBuilder : mWeatherBuilder;
+        final String sql = builder.buildQuery(projection, SELECTIONS[selection], null, null,
+                sortOrder, limit);
+        final Plan plan = new Plan(projection == null ? null : projection.clone(), sortOrder,
+                limit, sql);
+        synchronized (mPlans) {
+            Plan[] plans = mPlans[selection];
+            int slot = 0;
+            while (slot < plans.length && plans[slot] != null) {
+                slot++;
+            }
+            if (slot == plans.length) {
+                slot = mNextSlot[selection];
+                mNextSlot[selection] = (slot + 1) % plans.length;
+            }
+            plans[slot] = plan;
+        }
+        return sql;
+    }
+
+    /**
+     * Whether the query has to join the location table.  A null projection means all the
+     * columns, location ones included.
+     */
+    static boolean needsLocation(String[] projection, String sortOrder) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (isLocationColumn(column)) {
+                return true;
+            }
+        }
+        if (sortOrder != null) {
+            for (String term : sortOrder.split(",")) {
+                String column = term.trim();
+                int space = column.indexOf(' ');
+                if (isLocationColumn(space == -1 ? column : column.substring(0, space))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLocationColumn(String column) {
+        if (column.startsWith(LocationEntry.TABLE_NAME + ".")) {
+            return true;
+        }
+        for (String locationColumn : LOCATION_COLUMNS) {
+            if (locationColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How weather rows are laid out on disk.
+ *
+ * The legacy layout stores rows exactly as {@link WeatherEntry} describes them.  The compact
+ * layout stores the date as a local epoch day, the measurements as scaled integers, and keeps
+ * each short description once per weather id in a side table.  Either way clients read and
+ * write the {@link WeatherContract} columns; the provider uses this class to translate.
+ */
+final class WeatherStorage {
+
+    // Descriptions, keyed by weather id.  Only used by the compact layout.
+    static final String CONDITION_TABLE_NAME = "weather_condition";
+
+    // Read-only view with the contract's columns and units, used for selections written
+    // against the contract (e.g. "date <= ?" in milliseconds).  Only used by the compact layout.
+    static final String WEATHER_VIEW_NAME = "weather_view";
+
+    // Fixed point scale factors for the compact layout.  Chosen so that the precision the API
+    // returns survives the round trip.
+    static final int TEMP_SCALE = 100;
+    static final int HUMIDITY_SCALE = 10;
+    static final int PRESSURE_SCALE = 100;
+    static final int WIND_SCALE = 100;
+    static final int DEGREES_SCALE = 10;
+
+    private final boolean mCompact;
+    private final HashMap<String, String> mProjectionMap;
+
+    WeatherStorage(boolean compact) {
+        mCompact = compact;
+        mProjectionMap = compact ? buildCompactProjectionMap() : null;
+    }
+
+    boolean isCompact() {
+        return mCompact;
+    }
+
+    /**
+     * @return the column mapping for queries over weather INNER JOIN location, or null when
+     * rows are stored as-is
+     */
+    Map<String, String> getProjectionMap() {
+        return mProjectionMap;
+    }
+
+    /**
+     * @param column a {@link WeatherEntry} column
+     * @return an SQL expression for that column's value in the contract's units, for use in
+     * queries over weather INNER JOIN location
+     */
+    String getColumnExpression(String column) {
+        if (!mCompact) {
+            return WeatherEntry.TABLE_NAME + "." + column;
+        }
+        String mapped = mProjectionMap.get(column);
+        return mapped.substring(0, mapped.length() - (" AS " + column).length());
+    }
+
+    /**
+     * @return the table to read from when the caller supplies its own selection
+     */
+    String getReadTable() {
+        return mCompact ? WEATHER_VIEW_NAME : WeatherEntry.TABLE_NAME;
+    }
+
+    /**
+     * Turns a caller supplied selection, written against the contract's columns, into one
+     * that can be used to update or delete rows in the weather table.
+     */
+    String getWriteSelection(String selection) {
+        if (!mCompact || selection == null) {
+            return selection;
+        }
+        return WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " +
+                WEATHER_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * @param date a normalized date in milliseconds, as used by the contract
+     * @return the selection argument that matches that date in the weather table
+     */
+    String getDateArg(long date) {
+        if (mCompact) {
+            return Integer.toString(EpochDay.fromMillis(date));
+        }
+        return Long.toString(date);
+    }
+
+    /**
+     * Like {@link #getDateArg}, for binding as an integer.
+     */
+    long getDateValue(long date) {
+        return mCompact ? EpochDay.fromMillis(date) : date;
+    }
+
+    /**
+     * Converts values written against the contract into the stored layout, in place.  In the
+     * compact layout this also records the short description for the row's weather id.
+     */
+    void encode(SQLiteDatabase db, ContentValues values) {
+        if (!mCompact) {
+            // normalize the date value
+            if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+                long dateValue = values.getAsLong(WeatherEntry.COLUMN_DATE);
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            }
+            return;
+        }
+
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (date != null) {
+            values.put(WeatherEntry.COLUMN_DATE, EpochDay.fromMillis(date));
+        }
+        scale(values, WeatherEntry.COLUMN_MIN_TEMP, TEMP_SCALE);
+        scale(values, WeatherEntry.COLUMN_MAX_TEMP, TEMP_SCALE);
+        scale(values, WeatherEntry.COLUMN_HUMIDITY, HUMIDITY_SCALE);
+        scale(values, WeatherEntry.COLUMN_PRESSURE, PRESSURE_SCALE);
+        scale(values, WeatherEntry.COLUMN_WIND_SPEED, WIND_SCALE);
+        scale(values, WeatherEntry.COLUMN_DEGREES, DEGREES_SCALE);
+
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (shortDesc != null) {
+            values.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            if (weatherId != null) {
+                ContentValues condition = new ContentValues(2);
+                condition.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+                condition.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+                db.insertWithOnConflict(CONDITION_TABLE_NAME, null, condition,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+            }
+        }
+    }
+
+    void createTables(SQLiteDatabase db) {
+        if (!mCompact) {
+            return;
+        }
+        db.execSQL("CREATE TABLE " + CONDITION_TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL);");
+
+        StringBuilder view = new StringBuilder("CREATE VIEW " + WEATHER_VIEW_NAME + " AS SELECT ");
+        String[] columns = {
+                WeatherEntry._ID,
+                WeatherEntry.COLUMN_LOC_KEY,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES
+        };
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) view.append(", ");
+            view.append(mProjectionMap.get(columns[i]));
+        }
+        view.append(" FROM ").append(WeatherEntry.TABLE_NAME).append(';');
+        db.execSQL(view.toString());
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP VIEW IF EXISTS " + WEATHER_VIEW_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CONDITION_TABLE_NAME);
+    }
+
+    private static void scale(ContentValues values, String column, int scale) {
+        Double value = values.getAsDouble(column);
+        if (value != null) {
+            values.put(column, Math.round(value * scale));
+        }
+    }
+
+    private static HashMap<String, String> buildCompactProjectionMap() {
+        final String weather = WeatherEntry.TABLE_NAME + ".";
+        final String location = LocationEntry.TABLE_NAME + ".";
+        HashMap<String, String> map = new HashMap<String, String>();
+
+        String weatherId = weather + WeatherEntry._ID + " AS " + WeatherEntry._ID;
+        map.put(WeatherEntry._ID, weatherId);
+        map.put(weather + WeatherEntry._ID, weatherId);
+        putColumn(map, weather, WeatherEntry.COLUMN_LOC_KEY);
+        putColumn(map, weather, WeatherEntry.COLUMN_WEATHER_ID);
+
+        // Dates are stored as local epoch days.  The 'utc' modifier treats its input as local
+        // time, which turns the day back into local midnight in milliseconds.
+        String date = "CAST(strftime('%s', " + weather + WeatherEntry.COLUMN_DATE +
+                " * 86400, 'unixepoch', 'utc') AS INTEGER) * 1000 AS " + WeatherEntry.COLUMN_DATE;
+        map.put(WeatherEntry.COLUMN_DATE, date);
+        map.put(weather + WeatherEntry.COLUMN_DATE, date);
+
+        String shortDesc = "(SELECT " + WeatherEntry.COLUMN_SHORT_DESC + " FROM " +
+                CONDITION_TABLE_NAME + " WHERE " + CONDITION_TABLE_NAME + "." +
+                WeatherEntry.COLUMN_WEATHER_ID + " = " + weather + WeatherEntry.COLUMN_WEATHER_ID +
+                ") AS " + WeatherEntry.COLUMN_SHORT_DESC;
+        map.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+        map.put(weather + WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+
+        putScaledColumn(map, weather, WeatherEntry.COLUMN_MIN_TEMP, TEMP_SCALE);
+        putScaledColumn(map, weather, WeatherEntry.COLUMN_MAX_TEMP, TEMP_SCALE);
+        putScaledColumn(map, weather, WeatherEntry.COLUMN_HUMIDITY, HUMIDITY_SCALE);
+        putScaledColumn(map, weather, WeatherEntry.COLUMN_PRESSURE, PRESSURE_SCALE);
+        putScaledColumn(map, weather, WeatherEntry.COLUMN_WIND_SPEED, WIND_SCALE);
+        putScaledColumn(map, weather, WeatherEntry.COLUMN_DEGREES, DEGREES_SCALE);
+
+        map.put(location + LocationEntry._ID,
+                location + LocationEntry._ID + " AS " + LocationEntry._ID);
+        putColumn(map, location, LocationEntry.COLUMN_LOCATION_SETTING);
+        putColumn(map, location, LocationEntry.COLUMN_CITY_NAME);
+        putColumn(map, location, LocationEntry.COLUMN_COORD_LAT);
+        putColumn(map, location, LocationEntry.COLUMN_COORD_LONG);
+        return map;
+    }
+
+    private static void putColumn(Map<String, String> map, String table, String column) {
+        String value = table + column + " AS " + column;
+        map.put(column, value);
+        map.put(table + column, value);
+    }
+
+    private static void putScaledColumn(Map<String, String> map, String table, String column,
+                                        int scale) {
+        String value = table + column + " / " + scale + ".0 AS " + column;
+        map.put(column, value);
+        map.put(table + column, value);
+    }
+}
@@ -21,12 +21,12 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.example.android.sunshine.app.ArtPrefetcher;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.google.android.gms.gcm.GcmListenerService;
@@ -95,7 +95,8 @@ public class MyGcmListenerService extends GcmListenerService {
         // icon as a bitmap. So we need to create that here from the resource ID, and pass the
         // object along in our notification builder. Generally, you want to use the app icon as the
         // small icon, so that users understand what app is triggering this notification.
-        Bitmap largeIcon = BitmapFactory.decodeResource(this.getResources(), R.drawable.art_storm);
+        Bitmap largeIcon = ArtPrefetcher.getArtBitmap(this, ArtPrefetcher.SURFACE_NOTIFICATION,
+                R.drawable.art_storm);
         NotificationCompat.Builder mBuilder =
                 new NotificationCompat.Builder(this)
                         .setSmallIcon(R.drawable.art_clear)
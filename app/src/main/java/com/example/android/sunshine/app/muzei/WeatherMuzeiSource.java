@@ -16,11 +16,12 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastFile;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
@@ -30,14 +31,6 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -55,13 +48,10 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        Bundle summary = ForecastFile.getTodaySummary(this, location);
+        if (summary != null) {
+            int weatherId = summary.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            String desc = summary.getString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
 
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
             // Only publish a new wallpaper if we have a valid image
@@ -74,6 +64,5 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
                         .build());
             }
         }
-        cursor.close();
     }
 }
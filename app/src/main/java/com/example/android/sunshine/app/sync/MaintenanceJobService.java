@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+
+/**
+ * Runs the database maintenance about once a day, when the device is idle and charging, so
+ * nobody is waiting on the database while it runs.  The stats of the last run are kept in
+ * {@link #PREFS_NAME}.
+ */
+public class MaintenanceJobService extends JobService {
+
+    private static final String LOG_TAG = MaintenanceJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    private static final long INTERVAL_MILLIS = 1000L * 60 * 60 * 24;
+
+    public static final String PREFS_NAME = "database_maintenance";
+    public static final String PREF_LAST_RUN = "last_run";
+
+    /**
+     * Schedules the job, unless it already is.  Scheduling it again would restart its period.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        new AsyncTask<JobParameters, Void, Void>() {
+            @Override
+            protected Void doInBackground(JobParameters... params) {
+                Bundle result = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        MaintenanceEntry.METHOD_RUN_MAINTENANCE, null, null);
+                if (result != null) {
+                    record(result);
+                }
+                jobFinished(params[0], false);
+                return null;
+            }
+        }.execute(params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The provider call can't be interrupted, so it finishes on its own; the next period
+        // runs the job again either way
+        return false;
+    }
+
+    private void record(Bundle result) {
+        Log.d(LOG_TAG, "Database maintenance took " +
+                result.getLong(MaintenanceEntry.EXTRA_DURATION_MILLIS) + " ms: file " +
+                result.getLong(MaintenanceEntry.EXTRA_FILE_SIZE_BEFORE) + " -> " +
+                result.getLong(MaintenanceEntry.EXTRA_FILE_SIZE_AFTER) + " bytes, " +
+                result.getLong(MaintenanceEntry.EXTRA_PAGE_SIZE) + " byte pages " +
+                result.getLong(MaintenanceEntry.EXTRA_PAGE_COUNT_BEFORE) + " -> " +
+                result.getLong(MaintenanceEntry.EXTRA_PAGE_COUNT_AFTER) + ", free pages " +
+                result.getLong(MaintenanceEntry.EXTRA_FREE_PAGES_BEFORE) + " -> " +
+                result.getLong(MaintenanceEntry.EXTRA_FREE_PAGES_AFTER) + ", check " +
+                result.getString(MaintenanceEntry.EXTRA_CHECK_RESULT));
+
+        SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit();
+        editor.putLong(PREF_LAST_RUN, System.currentTimeMillis());
+        for (String key : result.keySet()) {
+            Object value = result.get(key);
+            if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            }
+        }
+        editor.apply();
+    }
+}
@@ -2,13 +2,11 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -16,9 +14,7 @@ import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -26,14 +22,16 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ArtPrefetcher;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.ForecastFile;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -41,7 +39,6 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
@@ -57,9 +54,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Random;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
@@ -78,25 +73,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      */
     private static final int REQUEST_RESOLVE_ERROR = 1000;
 
-    private static final String MIN_TEMP_KEY = "com.example.android.sunshine.data.min_temp";
-    private static final String MAX_TEMP_KEY = "com.example.android.sunshine.data.max_temp";
-    private static final String WEATHER_ID_KEY = "com.example.android.sunshine.data.weather_id";
-
     private GoogleApiClient mGoogleApiClient;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -226,16 +204,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         return;
     }
 
+    // Send the wearable what was just written for today, from the snapshot the provider
+    // published when the write committed
+    private void updateWear(ForecastSnapshot snapshot) {
+        int today = snapshot.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+        if (today < snapshot.getCount()) {
+            sendWeatherToWear(snapshot.getLow(today), snapshot.getHigh(today),
+                    snapshot.getWeatherId(today));
+        }
+    }
+
     // Create a data map and put data in it
     private void sendWeatherToWear(double low, double high, int weatherId) {
-        PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/weather");
-        Random rnd = new Random();
         Log.d(LOG_TAG, "sending ("+low+", "+high+"), "+weatherId);
 
-        putDataMapReq.getDataMap().putInt(MIN_TEMP_KEY, (int) low);
-        putDataMapReq.getDataMap().putInt(MAX_TEMP_KEY, (int) high);
-        putDataMapReq.getDataMap().putInt(WEATHER_ID_KEY, weatherId);
-        PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
+        PutDataRequest putDataReq =
+                WearUpdateService.createWeatherRequest(getContext(), low, high, weatherId);
         PendingResult<DataApi.DataItemResult> pendingResult =
                 Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
         pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
@@ -333,14 +317,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int startDay = EpochDay.today();
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -359,8 +337,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Get the JSON object representing the day
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                // Local midnight of the i-th day, which is already normalized
+                dateTime = EpochDay.toMillis(startDay + i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -394,10 +372,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
 
                 cVVector.add(weatherValues);
-
-                if (i == 0) {
-                    sendWeatherToWear(low, high, weatherId);
-                }
             }
 
             // add to database
@@ -406,14 +380,29 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 cVVector.toArray(cvArray);
                 getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                // move past days into the history table, then roll up a bounded amount of old
+                // history so it never grows without limit
+                getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.HistoryEntry.METHOD_ARCHIVE,
+                        Long.toString(EpochDay.toMillis(startDay - 1)), null);
+                getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.HistoryEntry.METHOD_COMPACT, null, null);
+
+                // before telling anyone, so they read the new forecast from the file
+                ForecastSnapshot snapshot =
+                        ForecastSnapshot.load(getContext().getContentResolver(), locationSetting);
+                if (snapshot != null) {
+                    ForecastFile.write(getContext(), snapshot);
+                    // the widgets and the notification below find the art already loaded
+                    ArtPrefetcher.prefetch(getContext(), snapshot);
+                }
 
                 updateWidgets();
                 updateMuzei();
                 notifyWeather();
+                if (snapshot != null) {
+                    updateWear(snapshot);
+                }
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
@@ -460,45 +449,33 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                // we only need one row, so skip the cursor and read today's summary
+                Bundle summary = ForecastFile.getTodaySummary(context, locationQuery);
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                // The summary is the first forecast from today on, which is a later day when
+                // today's row is missing; only today's weather is worth a notification
+                if (summary != null && EpochDay.fromMillis(
+                        summary.getLong(WeatherContract.WeatherEntry.COLUMN_DATE)) ==
+                        EpochDay.today()) {
+                    int weatherId = summary.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                    double high = summary.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+                    double low = summary.getDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+                    String desc = summary.getString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
                     String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
+                    // Retrieve the large icon, at the size the prefetch warmed it at
                     Bitmap largeIcon;
                     try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
+                        largeIcon = ArtPrefetcher.getArtBitmap(context,
+                                ArtPrefetcher.SURFACE_NOTIFICATION, artUrl, artResourceId);
+                    } catch (InterruptedException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                        largeIcon = ArtPrefetcher.getArtBitmap(context,
+                                ArtPrefetcher.SURFACE_NOTIFICATION, artResourceId);
                     }
                     String title = context.getString(R.string.app_name);
 
@@ -545,7 +522,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -560,51 +536,27 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        // The provider keeps the setting to id mapping in memory, so after the first sync this
+        // doesn't touch the database.  The extras are only used if the location is new.
+        Bundle locationExtras = new Bundle();
+        locationExtras.putString(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationExtras.putDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationExtras.putDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        Bundle result = getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.LocationEntry.METHOD_RESOLVE, locationSetting, locationExtras);
+        return result.getLong(WeatherContract.LocationEntry._ID);
     }
 
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
-        Account account = getSyncAccount(context);
+        configurePeriodicSync(context, getSyncAccount(context), syncInterval, flexTime);
+    }
+
+    private static void configurePeriodicSync(Context context, Account account, int syncInterval,
+                                              int flexTime) {
         String authority = context.getString(R.string.content_authority);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
@@ -620,21 +572,27 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Returns right away; the sync is
+     * requested once {@link SyncBootstrap} has the account.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncBootstrap.syncImmediately(context);
+    }
+
+    static void requestSync(Context context, Account account) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        ContentResolver.requestSync(account, context.getString(R.string.content_authority), bundle);
     }
 
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
-     * onAccountCreated method so we can initialize things.
+     * onAccountCreated method so we can initialize things.  These are binder calls to the
+     * account manager and the sync manager, so from the main thread use
+     * {@link SyncBootstrap#getAccount(Context)} instead.
      *
      * @param context The context used to access the account service
      * @return a fake account.
@@ -674,7 +632,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        configurePeriodicSync(context, newAccount, SYNC_INTERVAL, SYNC_FLEXTIME);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -684,11 +642,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Finally, let's do a sync to get things started
          */
-        syncImmediately(context);
+        requestSync(context, newAccount);
     }
 
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
+        SyncBootstrap.initialize(context);
     }
 
     /**
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets up the sync off the main thread.  Looking up the sync account, and creating it and
+ * scheduling the periodic sync the first time, are all binder calls to the system; they are
+ * done once per process on a background thread, and the account is kept.
+ *
+ * Everything runs on a single thread in the order it was asked for, so a sync requested before
+ * the account is ready is requested once it is.  The user can remove the account in the system
+ * settings at any time, so the background tasks check it still exists before using it, and
+ * create it again if it doesn't.
+ */
+public final class SyncBootstrap {
+
+    private static final String LOG_TAG = SyncBootstrap.class.getSimpleName();
+
+    // One thread, which goes away when there's nothing left to do
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Guarded by SyncBootstrap.class; null until asked for, and again if it couldn't be created
+    private static Future<Account> sAccount;
+
+    private SyncBootstrap() {
+    }
+
+    /**
+     * Makes sure the sync account exists and the sync is scheduled.  Returns right away.
+     */
+    public static void initialize(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final Future<Account> account = getAccount(appContext);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getExistingAccount(appContext, account);
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error getting the sync account", e);
+                }
+                MaintenanceJobService.schedule(appContext);
+            }
+        });
+    }
+
+    /**
+     * @return the sync account, once it's been looked up or created; null if it couldn't be
+     * created.  Only a background thread should wait on it.
+     */
+    public static synchronized Future<Account> getAccount(Context context) {
+        if (sAccount == null) {
+            final Context appContext = context.getApplicationContext();
+            sAccount = sExecutor.submit(new Callable<Account>() {
+                @Override
+                public Account call() {
+                    Account account = SunshineSyncAdapter.getSyncAccount(appContext);
+                    if (account == null) {
+                        // Tried again the next time it's asked for
+                        synchronized (SyncBootstrap.class) {
+                            sAccount = null;
+                        }
+                    }
+                    return account;
+                }
+            });
+        }
+        return sAccount;
+    }
+
+    /**
+     * Asks for a sync now, once the account is ready.  Returns right away.
+     */
+    public static void syncImmediately(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final Future<Account> account = getAccount(appContext);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Account syncAccount = getExistingAccount(appContext, account);
+                    if (syncAccount != null) {
+                        SunshineSyncAdapter.requestSync(appContext, syncAccount);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error getting the sync account", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the account of the future, or a new one if it has been removed since it was
+     * looked up; null if it couldn't be created.  Only for tasks on the executor, which have
+     * the future done already: it was queued ahead of them.
+     */
+    private static Account getExistingAccount(Context appContext, Future<Account> future)
+            throws InterruptedException, ExecutionException {
+        Account account = future.get();
+        if (account == null) {
+            return null;
+        }
+        AccountManager accountManager =
+                (AccountManager) appContext.getSystemService(Context.ACCOUNT_SERVICE);
+        // Same test as getSyncAccount: no password, no account
+        if (accountManager.getPassword(account) != null) {
+            return account;
+        }
+
+        synchronized (SyncBootstrap.class) {
+            if (sAccount == future) {
+                sAccount = null;
+            }
+        }
+        // Already on the executor's thread, so created here rather than through getAccount;
+        // the next getAccount finds it and keeps it
+        return SunshineSyncAdapter.getSyncAccount(appContext);
+    }
+}
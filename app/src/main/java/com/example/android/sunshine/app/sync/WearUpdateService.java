@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.ForecastFile;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends today's forecast to the watch face again from the forecast file, for when only the
+ * units changed.  The sync sends it after writing new weather.
+ */
+public class WearUpdateService extends IntentService {
+
+    private static final String LOG_TAG = WearUpdateService.class.getSimpleName();
+
+    static final String MIN_TEMP_KEY = "com.example.android.sunshine.data.min_temp";
+    static final String MAX_TEMP_KEY = "com.example.android.sunshine.data.max_temp";
+    static final String WEATHER_ID_KEY = "com.example.android.sunshine.data.weather_id";
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    public WearUpdateService() {
+        super("WearUpdateService");
+    }
+
+    /**
+     * The watch face shows the temperatures as they come, so they are sent in the user's units.
+     */
+    static PutDataRequest createWeatherRequest(Context context, double low, double high,
+                                               int weatherId) {
+        if (!Utility.isMetric(context)) {
+            low = low * 1.8 + 32;
+            high = high * 1.8 + 32;
+        }
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/weather");
+        putDataMapReq.getDataMap().putInt(MIN_TEMP_KEY, (int) Math.round(low));
+        putDataMapReq.getDataMap().putInt(MAX_TEMP_KEY, (int) Math.round(high));
+        putDataMapReq.getDataMap().putInt(WEATHER_ID_KEY, weatherId);
+        return putDataMapReq.asPutDataRequest();
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        ForecastFile file = ForecastFile.read(this, Utility.getPreferredLocation(this));
+        if (file == null) {
+            return;
+        }
+        int today = file.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+        if (today >= file.getCount()) {
+            return;
+        }
+
+        GoogleApiClient client = new GoogleApiClient.Builder(this)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult result = client.blockingConnect(CONNECT_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            Log.e(LOG_TAG, "Connection to Google API client has failed");
+            return;
+        }
+        try {
+            boolean sent = Wearable.DataApi.putDataItem(client,
+                    createWeatherRequest(this, file.getLow(today), file.getHigh(today),
+                            file.getWeatherId(today)))
+                    .await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .getStatus().isSuccess();
+            Log.d(LOG_TAG, "Sending data was successful: " + sent);
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -14,6 +14,7 @@ import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.DetailActivity;
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.PresentationChanges;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
@@ -57,7 +58,8 @@ public class DetailWidgetProvider extends AppWidgetProvider {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction()) ||
+                PresentationChanges.ACTION_PRESENTATION_CHANGED.equals(intent.getAction())) {
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
                     new ComponentName(context, getClass()));
@@ -2,7 +2,6 @@ package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
@@ -12,13 +11,13 @@ import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.ArtPrefetcher;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.EpochDay;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -26,26 +25,13 @@ import java.util.concurrent.ExecutionException;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public final String LOG_TAG = DetailWidgetRemoteViewsService.class.getSimpleName();
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    static final int INDEX_WEATHER_ID = 0;
-    static final int INDEX_WEATHER_DATE = 1;
-    static final int INDEX_WEATHER_CONDITION_ID = 2;
-    static final int INDEX_WEATHER_DESC = 3;
-    static final int INDEX_WEATHER_MAX_TEMP = 4;
-    static final int INDEX_WEATHER_MIN_TEMP = 5;
-
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            // Read straight from the published snapshot, which never changes under us
+            private ForecastSnapshot data = null;
+            // Position in the snapshot of today's forecast
+            private int first = 0;
 
             @Override
             public void onCreate() {
@@ -54,68 +40,60 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
-                }
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                data = ForecastSnapshot.load(getContentResolver(), location);
+                if (data != null) {
+                    first = data.indexOfFirstDayFrom(EpochDay.toMillis(EpochDay.today()));
+                }
                 Binder.restoreCallingIdentity(identityToken);
             }
 
             @Override
             public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
+                data = null;
             }
 
             @Override
             public int getCount() {
-                return data == null ? 0 : data.getCount();
+                return data == null ? 0 : data.getCount() - first;
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
                 if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                        data == null || position >= getCount()) {
                     return null;
                 }
+                final int day = first + position;
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                int weatherId = data.getWeatherId(day);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
                 Bitmap weatherArtImage = null;
                 if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
                     String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
                             DetailWidgetRemoteViewsService.this, weatherId);
                     try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
+                        // Without a fallback, so a failed load sends the resource id below
+                        // rather than a bitmap
+                        weatherArtImage = ArtPrefetcher.getArtBitmap(
+                                DetailWidgetRemoteViewsService.this, ArtPrefetcher.SURFACE_WIDGET,
+                                weatherArtResourceUrl, 0);
+                    } catch (InterruptedException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
                     }
                 }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                String description = data.getShortDesc(day);
+                long dateInMillis = data.getDate(day);
                 String formattedDate = Utility.getFriendlyDayString(
                         DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
+                double maxTemp = data.getHigh(day);
+                double minTemp = data.getLow(day);
                 String formattedMaxTemperature =
                         Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
                 String formattedMinTemperature =
@@ -161,8 +139,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                if (data != null && position < getCount())
+                    return data.getId(first + position);
                 return position;
             }
 
@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.app.PresentationChanges;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -46,7 +47,8 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction()) ||
+                PresentationChanges.ACTION_PRESENTATION_CHANGED.equals(intent.getAction())) {
             context.startService(new Intent(context, TodayWidgetIntentService.class));
         }
     }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * The kind of weather each OpenWeatherMap condition code shows, for the phone app and the watch
+ * face alike.  The table is built once as an array indexed by code, so a lookup is an array
+ * read, and each module maps the few kinds to its own icons and art.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int UNKNOWN = 0;
+    public static final int STORM = 1;
+    public static final int LIGHT_RAIN = 2;
+    public static final int RAIN = 3;
+    public static final int SNOW = 4;
+    public static final int FOG = 5;
+    public static final int CLEAR = 6;
+    public static final int LIGHT_CLOUDS = 7;
+    public static final int CLOUDS = 8;
+    // Shown as a storm, but with a photo of its own
+    public static final int TORNADO = 9;
+    public static final int KIND_COUNT = 10;
+
+    // Condition codes are three digits
+    public static final int MAX_CODE = 999;
+
+    private static final byte[] KINDS = new byte[MAX_CODE + 1];
+
+    // The name of each kind's art in an art pack, by kind
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds",
+            "storm"
+    };
+
+    // A photo of each kind, by kind
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"
+    };
+
+    static {
+        // In the order the original if/else chains tested them: a code keeps the first kind it
+        // gets, so 761 (dust) stays fog even though it is also listed with 781
+        put(200, 232, STORM);
+        put(300, 321, LIGHT_RAIN);
+        put(500, 504, RAIN);
+        put(511, 511, SNOW);
+        put(520, 531, RAIN);
+        put(600, 622, SNOW);
+        put(701, 761, FOG);
+        put(761, 761, TORNADO);
+        put(781, 781, TORNADO);
+        put(800, 800, CLEAR);
+        put(801, 801, LIGHT_CLOUDS);
+        put(802, 804, CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void put(int first, int last, int kind) {
+        for (int code = first; code <= last; code++) {
+            if (KINDS[code] == UNKNOWN) {
+                KINDS[code] = (byte) kind;
+            }
+        }
+    }
+
+    /**
+     * @param weatherId an OpenWeatherMap condition code
+     * @return the kind of weather, or {@link #UNKNOWN} for codes with none
+     */
+    public static int getKind(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_CODE ? KINDS[weatherId] : UNKNOWN;
+    }
+
+    /**
+     * @param kind one of the kinds above
+     * @return the name of the kind's art in an art pack, or null if it has none
+     */
+    public static String getArtName(int kind) {
+        return ART_NAMES[kind];
+    }
+
+    /**
+     * @return the url of a photo of the condition, or null if it has none
+     */
+    public static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getKind(weatherId)];
+    }
+}
@@ -39,6 +39,7 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WeatherConditions;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataApi;
@@ -79,6 +80,20 @@ public class SunshineFace extends CanvasWatchFaceService implements GoogleApiCli
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    // Icons by WeatherConditions kind, the same as the phone's list
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_storm
+    };
+
     private GoogleApiClient mGoogleApiClient;
 
     int lowTemp = 0;
@@ -217,33 +232,7 @@ public class SunshineFace extends CanvasWatchFaceService implements GoogleApiCli
         }
 
         private void loadIconResourceForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            int icon = -1;
-
-            if (weatherId >= 200 && weatherId <= 232) {
-                icon = R.drawable.ic_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                icon = R.drawable.ic_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                icon = R.drawable.ic_rain;
-            } else if (weatherId == 511) {
-                icon = R.drawable.ic_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                icon = R.drawable.ic_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                icon = R.drawable.ic_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                icon = R.drawable.ic_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                icon = R.drawable.ic_storm;
-            } else if (weatherId == 800) {
-                icon = R.drawable.ic_clear;
-            } else if (weatherId == 801) {
-                icon = R.drawable.ic_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                icon = R.drawable.ic_cloudy;
-            }
+            int icon = ICONS[WeatherConditions.getKind(weatherId)];
 
             mWeatherBitmap = null;
             if (icon != -1) {